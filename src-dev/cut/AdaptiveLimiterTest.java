@@ -0,0 +1,52 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testConvergesToTarget() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1000, 0);
+        int admitted = 0;
+
+        for (long t = 0; t < 60 * E9; t += E9 / 3000) {    // 3 kHz offered
+            boolean ok = limiter.tryAcquire(t);
+            if (ok && t >= 30 * E9) {
+                admitted++;
+            }
+        }
+
+        double f = admitted / 30.0;
+        Assert.assertEquals(1000, f, 200);
+        Assert.assertEquals(1000, limiter.getFrequency(60 * E9), 300);
+    }
+
+    @Test
+    public void testBelowTarget() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1000, 0);
+        for (long t = 0; t < 10 * E9; t += E9 / 500) {    // 500 Hz offered
+            Assert.assertTrue(limiter.tryAcquire(t));
+        }
+        Assert.assertEquals(2000.0, limiter.getRate(), 0.0);
+    }
+
+    @Test
+    public void testDelay() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1000, 0);
+        long maxDelay = E9 / 100;
+        int shed = 0;
+        for (int i = 0; i < 100; i++) {
+            long delay = limiter.acquireDelay(0, maxDelay);
+            if (delay < 0) {
+                shed++;
+            } else {
+                Assert.assertTrue(delay <= maxDelay);
+            }
+        }
+
+        // 10 events burst and 10 more within the max delay.
+        Assert.assertEquals(80, shed, 1);
+    }
+}
@@ -0,0 +1,93 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AwaitEventsTest {
+    private static final long SECOND = 1000L * 1000 * 1000;
+
+    @Test
+    public void testAny() {
+        ToWaitFor[] events = create(3);
+        Assert.assertEquals(-1, AwaitEvents.awaitAny(1000, events));
+        events[2].reportHappened();
+        events[1].reportHappened();
+        Assert.assertEquals(1, AwaitEvents.awaitAny(0, events));
+    }
+
+    @Test
+    public void testAllAndQuorum() {
+        ToWaitFor[] events = create(5);
+        events[0].reportHappened();
+        events[3].reportHappened();
+        Assert.assertFalse(AwaitEvents.awaitAll(1000, events));
+        Assert.assertTrue(AwaitEvents.awaitQuorum(2, 0, events));
+        Assert.assertFalse(AwaitEvents.awaitQuorum(3, 1000, events));
+        Assert.assertTrue(AwaitEvents.awaitQuorum(0, 0, events));
+        Assert.assertTrue(AwaitEvents.awaitAll(0, new ToWaitFor[0]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadQuorum() {
+        AwaitEvents.awaitQuorum(3, 0, create(2));
+    }
+
+    @Test
+    public void testQuorumWithThreads() {
+        final ToWaitFor[] events = create(5);
+        for (int i = 0; i < events.length; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Thread.sleep(index * 20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    events[index].reportHappened();
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(AwaitEvents.awaitQuorum(3, 10 * SECOND, events));
+        Assert.assertTrue(events[0].hasHappened());
+        Assert.assertTrue(AwaitEvents.awaitAll(10 * SECOND, events));
+    }
+
+    @Test
+    public void testCallbacksRemoved() {
+        ToWaitFor[] events = create(3);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(-1, AwaitEvents.awaitAny(1, events));
+            Assert.assertFalse(AwaitEvents.awaitQuorum(2, 1, events));
+        }
+        for (ToWaitFor event : events) {
+            Assert.assertEquals(0, event.nodeCount());
+        }
+        
+        events[1].reportHappened();
+        Assert.assertEquals(1, AwaitEvents.awaitAny(SECOND, events));
+        Assert.assertEquals(0, events[0].nodeCount());
+        Assert.assertEquals(0, events[2].nodeCount());
+    }
+
+    @Test
+    public void testEventToWaitFor() {
+        EventToWaitFor e1 = new EventToWaitFor();
+        EventToWaitFor e2 = new EventToWaitFor();
+        Assert.assertEquals(-1, AwaitEvents.awaitAny(1000, e1, e2));
+        e2.happened();
+        Assert.assertEquals(1, AwaitEvents.awaitAny(SECOND, e1, e2));
+        Assert.assertFalse(AwaitEvents.awaitAll(1000, e1, e2));
+        e1.happened();
+        Assert.assertTrue(AwaitEvents.awaitAll(SECOND, e1, e2));
+    }
+
+    private static ToWaitFor[] create(int n) {
+        ToWaitFor[] events = new ToWaitFor[n];
+        for (int i = 0; i < n; i++) {
+            events[i] = new ToWaitFor();
+        }
+        return events;
+    }
+}
@@ -0,0 +1,65 @@
+package cut;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChaCha20RandomTest {
+
+    @Test
+    public void testRfc7539BlockFunction() {
+        // RFC 7539, 2.3.2. The 32-bit counter and 96-bit nonce of the RFC
+        // map to our 64-bit counter and 64-bit nonce.
+        int[] key = new int[8];
+        byte[] keyBytes = new byte[32];
+        for (int i = 0; i < 32; i++) {
+            keyBytes[i] = (byte) i;
+        }
+        for (int i = 0; i < 8; i++) {
+            key[i] = Bytes.bytesToIntLE(keyBytes, 4 * i);
+        }
+
+        ChaCha20Random r = new ChaCha20Random(key, (0x09000000L << 32) | 1, 0x4a000000L);
+        byte[] block = new byte[64];
+        r.nextBytes(block);
+
+        Assert.assertEquals(
+                "10f1e7e4d13b5915500fdd1fa32071c4c7d1f4c733c068030422aa9ac3d46c4e"
+                + "d2826446079faa0914c2d705d98b02a2b5129cd1de164eb9cbd083e8a2503c4e",
+                Hex.create(block));
+    }
+
+    @Test
+    public void testBulkSameAsWords() {
+        byte[] seed = new byte[40];
+        seed[0] = 1;
+        ChaCha20Random r1 = new ChaCha20Random(seed);
+        ChaCha20Random r2 = new ChaCha20Random(seed);
+
+        r1.nextInt();
+        r2.nextInt();
+        byte[] bytes = new byte[200];
+        r1.nextBytes(bytes, 0, 200);
+        for (int i = 0; i < 200; i += 4) {
+            Assert.assertEquals(r2.nextInt(), Bytes.bytesToIntLE(bytes, i));
+        }
+
+        long[] longs = new long[5];
+        r1.nextLongs(longs, 0, 5);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(r2.nextLong(), longs[i]);
+        }
+    }
+
+    @Test
+    public void testCurrentAndSplit() {
+        ChaCha20Random r = ChaCha20Random.current();
+        Assert.assertSame(r, ChaCha20Random.current());
+        byte[] b1 = new byte[32];
+        byte[] b2 = new byte[32];
+        r.split().nextBytes(b1);
+        r.split().nextBytes(b2);
+        Assert.assertFalse(Arrays.equals(b1, b2));
+    }
+}
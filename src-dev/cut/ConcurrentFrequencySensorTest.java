@@ -0,0 +1,131 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentFrequencySensorTest {
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testSameAsFrequencySensor() {
+        FrequencySensor s1 = new FrequencySensor(5.0, 0);
+        ConcurrentFrequencySensor s2 = new ConcurrentFrequencySensor(5.0, 0);
+        java.util.Random random = new java.util.Random(1);
+        long time = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            time += 1 + random.nextInt(2 * 1000 * 1000 * 1000);
+            s1.tick(time);
+            s2.tick(time);
+            double f1 = s1.getFrequency(time + 12345);
+            double f2 = s2.getFrequency(time + 12345);
+            Assert.assertEquals(f1, f2, f1 * 1e-9);
+        }
+    }
+
+    @Test
+    public void testLikeFrequencySensorTest() {
+        ConcurrentFrequencySensor sensor = new ConcurrentFrequencySensor(10.0, 0);
+        for (int i = 1; i <= 100; i++) {
+            sensor.tick(i * E9);
+        }
+        double diff = Math.abs(1.0 - sensor.getFrequency(100 * E9));
+        Assert.assertTrue("diff:" + diff, diff < 0.01);
+    }
+
+    @Test
+    public void testBatch() {
+        // Ten events evenly spread is the same as a batch of ten.
+        ConcurrentFrequencySensor s1 = new ConcurrentFrequencySensor(3.0, 0);
+        ConcurrentFrequencySensor s2 = new ConcurrentFrequencySensor(3.0, 0);
+        for (int i = 1; i <= 100; i++) {
+            s1.tick(i * E9 / 10);
+        }
+        for (int i = 1; i <= 10; i++) {
+            s2.tick(i * E9, 10);
+        }
+        double f1 = s1.getFrequency(10 * E9);
+        double f2 = s2.getFrequency(10 * E9);
+        Assert.assertEquals(f1, f2, f1 * 1e-9);
+    }
+
+    @Test
+    public void testSimultaneous() {
+        ConcurrentFrequencySensor sensor = new ConcurrentFrequencySensor(1.0, 0);
+        sensor.tick(E9);
+        sensor.tick(E9);
+        sensor.tick(E9 / 2);
+        double f = sensor.getFrequency(E9);
+        Assert.assertFalse(Double.isNaN(f));
+        Assert.assertTrue("f=" + f, f > 0.5 + 2 * Math.log(2.0) - 1e-9);
+    }
+
+    @Test
+    public void testExp2Negative() {
+        for (int i = 0; i < 100000; i++) {
+            double x = i * 0.000731;
+            double expected = Math.pow(2.0, -x);
+            double actual = ConcurrentFrequencySensor.exp2Negative(x);
+            Assert.assertEquals("x=" + x, expected, actual, expected * 1e-12);
+        }
+        Assert.assertEquals(0.0, ConcurrentFrequencySensor.exp2Negative(2000.0), 0.0);
+        Assert.assertEquals(0.0, ConcurrentFrequencySensor.exp2Negative(Double.POSITIVE_INFINITY), 0.0);
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final ConcurrentFrequencySensor sensor = new ConcurrentFrequencySensor(1000.0, 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 1; i <= 100000; i++) {
+                        sensor.tick(i * 10000L);    // 100 kHz per thread
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 400000 events during one second, half life 1000 s; f is about
+        // 400000 * ln(2) / 1000.
+        double f = sensor.getFrequency(E9);
+        double expected = 400000 * Math.log(2.0) / 1000;
+        Assert.assertEquals(expected, f, expected * 0.01);
+    }
+
+    @Test
+    public void testStress() {
+        // Two ticks racing; the state CAS makes the result one of the sequential ones.
+        final double inOrder = frequency(E9, 2 * E9);
+        final double reversed = frequency(2 * E9, E9);
+
+        StressRunner.check(new StressRunner.Test<ConcurrentFrequencySensor>() {
+            public ConcurrentFrequencySensor newState() {
+                return new ConcurrentFrequencySensor(10.0, 0);
+            }
+
+            public void actor(int actor, ConcurrentFrequencySensor sensor) {
+                sensor.tick((actor + 1) * E9);
+            }
+
+            public String arbiter(ConcurrentFrequencySensor sensor) {
+                double f = sensor.getFrequency(3 * E9);
+                if (f == inOrder || f == reversed) {
+                    return "sequential";
+                }
+                return "f=" + f;
+            }
+        }, 2, "sequential");
+    }
+
+    private static double frequency(long time1, long time2) {
+        ConcurrentFrequencySensor sensor = new ConcurrentFrequencySensor(10.0, 0);
+        sensor.tick(time1);
+        sensor.tick(time2);
+        return sensor.getFrequency(3 * E9);
+    }
+}
@@ -0,0 +1,108 @@
+package cut;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.CheckedInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Crc32cTest {
+    
+    @Test
+    public void testKnownValue() throws IOException {
+        byte[] bytes = "123456789".getBytes("UTF-8");
+        Assert.assertEquals(0xe3069283L, Crc32c.compute(bytes, 0, bytes.length));
+        
+        Crc32c crc = new Crc32c(false);
+        crc.update(bytes, 0, bytes.length);
+        Assert.assertEquals(0xe3069283L, crc.getValue());
+    }
+    
+    @Test
+    public void testEmpty() {
+        Assert.assertEquals(0L, Crc32c.compute(new byte[0], 0, 0));
+        Assert.assertEquals(0L, new Crc32c(false).getValue());
+    }
+    
+    @Test
+    public void testTableEqualsJdk() {
+        Random random = new Random(1);
+        
+        for (int length = 0; length < 100; length++) {
+            byte[] bytes = new byte[length + 3];
+            random.nextBytes(bytes);
+            
+            Crc32c c1 = new Crc32c(false);
+            c1.update(bytes, 3, length);
+            Crc32c c2 = new Crc32c(false);
+            for (int i = 0; i < length; i++) {
+                c2.update(bytes[3 + i]);
+            }
+            
+            Assert.assertEquals(Crc32c.compute(bytes, 3, length), c1.getValue());
+            Assert.assertEquals(c1.getValue(), c2.getValue());
+        }
+    }
+    
+    @Test
+    public void testByteBuffer() {
+        byte[] bytes = new byte[1000];
+        new Random(2).nextBytes(bytes);
+        long expected = Crc32c.compute(bytes, 10, 990);
+        
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(10);
+        Assert.assertEquals(expected, Crc32c.compute(heap));
+        Assert.assertEquals(10, heap.position());
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(990);
+        direct.put(bytes, 10, 990);
+        direct.flip();
+        Crc32c crc = new Crc32c(false);
+        crc.update(direct);
+        Assert.assertEquals(expected, crc.getValue());
+        Assert.assertEquals(990, direct.position());
+    }
+    
+    @Test
+    public void testDirectByteBuffer() {
+        // Both implementations, both byte orders, split at every position.
+        byte[] bytes = new byte[100];
+        new Random(4).nextBytes(bytes);
+        long expected = Crc32c.compute(bytes, 0, bytes.length);
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        direct.position(3);
+        direct.put(bytes);
+        
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            direct.order(order);
+            for (int split = 0; split <= bytes.length; split++) {
+                for (boolean useJdk : new boolean[] {true, false}) {
+                    Crc32c crc = new Crc32c(useJdk);
+                    direct.limit(3 + split).position(3);
+                    crc.update(direct);
+                    direct.limit(3 + bytes.length);
+                    crc.update(direct);
+                    Assert.assertEquals(expected, crc.getValue());
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testCheckedStream() throws IOException {
+        byte[] bytes = new byte[10*1000];
+        new Random(3).nextBytes(bytes);
+        
+        Crc32c crc = new Crc32c();
+        Io.copy(new CheckedInputStream(new ByteArrayInputStream(bytes), crc), 
+                new ByteArrayOutputStream());
+        Assert.assertEquals(Crc32c.compute(bytes, 0, bytes.length), crc.getValue());
+    }
+}
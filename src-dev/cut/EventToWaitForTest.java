@@ -35,4 +35,47 @@ public class EventToWaitForTest {
         event.waitForEvent();
         Assert.assertTrue(event.didItHappen());
     }
+
+	@Test
+    public void testNanos() {
+        EventToWaitFor event = new EventToWaitFor(WaitStrategy.SPIN_PARK);
+        Assert.assertFalse(event.waitForEventNanos(1000 * 1000));
+        event.happened();
+        Assert.assertTrue(event.waitForEventNanos(0));
+        event.waitForEvent();
+    }
+    static class StressState {
+        final EventToWaitFor event = new EventToWaitFor(WaitStrategy.SPIN_PARK);
+        boolean before;
+        boolean waited;
+    }
+
+	@Test
+    public void testStress() {
+        // Actor 0 signals, actor 1 checks and waits.
+        StressRunner.check(new StressRunner.Test<StressState>() {
+            public StressState newState() {
+                return new StressState();
+            }
+
+            public void actor(int actor, StressState s) {
+                if (actor == 0) {
+                    s.event.happened();
+                } else {
+                    s.before = s.event.didItHappen();
+                    s.waited = s.event.waitForEventNanos(Long.MAX_VALUE);
+                }
+            }
+
+            public String arbiter(StressState s) {
+                return s.before + "," + s.waited + "," + s.event.didItHappen();
+            }
+        }, 2, "false,true,true", "true,true,true");
+    }
+
+	@Test
+    public void testHandOffs() {
+        StressRunner.handOffs("EventToWaitFor", StressRunner.eventHandOff(WaitStrategy.BLOCKING), 
+                1, 50);
+    }
 }
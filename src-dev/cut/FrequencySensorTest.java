@@ -31,4 +31,30 @@ public class FrequencySensorTest {
         double diff = Math.abs(3.0 - f);
         Assert.assertTrue("f=" + f, diff < 0.3);
    }
+
+    @Test
+    public void testStress() {
+        // Two ticks racing; the result must be as if they were applied in one order or the other.
+        final long e9 = 1000L*1000*1000;
+        StressRunner.check(new StressRunner.Test<FrequencySensor>() {
+            public FrequencySensor newState() {
+                return new FrequencySensor(10.0, 0);
+            }
+
+            public void actor(int actor, FrequencySensor sensor) {
+                sensor.tick((actor + 1) * e9);
+            }
+
+            public String arbiter(FrequencySensor sensor) {
+                return Double.toString(sensor.getFrequency(3*e9));
+            }
+        }, 2, frequency(e9, 2*e9, 3*e9), frequency(2*e9, e9, 3*e9));
+    }
+
+    private static String frequency(long time1, long time2, long time) {
+        FrequencySensor sensor = new FrequencySensor(10.0, 0);
+        sensor.tick(time1);
+        sensor.tick(time2);
+        return Double.toString(sensor.getFrequency(time));
+    }
 }
@@ -0,0 +1,207 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GenerationEventTest {
+
+    @Test
+    public void testSanity() {
+        GenerationEvent e = new GenerationEvent();
+        int g = e.generation();
+        Assert.assertFalse(e.waitForAdvanceNanos(g, 1000));
+        Assert.assertEquals(g, e.reportHappened());
+        Assert.assertEquals(g + 1, e.generation());
+        Assert.assertTrue(e.waitForAdvanceNanos(g, 0));
+        Assert.assertFalse(e.waitForAdvanceNanos(g + 1, 0));
+    }
+
+    @Test
+    public void testCount() {
+        GenerationEvent e = new GenerationEvent(3);
+        e.reportHappened();
+        e.reportHappened();
+        Assert.assertEquals(1, e.getRemaining());
+        e.reset();
+        Assert.assertEquals(3, e.getRemaining());
+        e.reportHappened();
+        e.reportHappened();
+        Assert.assertEquals(0, e.generation());
+        e.reportHappened();
+        Assert.assertEquals(1, e.generation());
+        Assert.assertEquals(3, e.getRemaining());
+    }
+
+    @Test
+    public void testRounds() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            // Spinning ping-pong without a spare processor takes seconds.
+            if (Runtime.getRuntime().availableProcessors() == 1
+                    && (strategy == WaitStrategy.BUSY_SPIN || strategy == WaitStrategy.SPIN_YIELD)) {
+                continue;
+            }
+
+            final GenerationEvent request = new GenerationEvent(1, strategy);
+            final GenerationEvent response = new GenerationEvent(1, strategy);
+            final int rounds = 1000;
+
+            Thread server = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < rounds; i++) {
+                        if (!request.waitForAdvanceNanos(i, 10L * 1000 * 1000 * 1000)) {
+                            return;
+                        }
+                        response.reportHappened();
+                    }
+                }
+            });
+            server.start();
+
+            for (int i = 0; i < rounds; i++) {
+                int g = response.generation();
+                request.reportHappened();
+                Assert.assertTrue(strategy.toString(),
+                        response.waitForAdvanceNanos(g, 10L * 1000 * 1000 * 1000));
+            }
+            server.join();
+            Assert.assertEquals(rounds, request.generation());
+            Assert.assertEquals(rounds, response.generation());
+        }
+    }
+
+    @Test
+    public void testPingPongUntimed() throws InterruptedException {
+        // A waiter for the next generation can push its node while the previous advance
+        // pops the waiters. With untimed waits, a lost wakeup hangs the test.
+        final GenerationEvent request = new GenerationEvent();
+        final GenerationEvent response = new GenerationEvent();
+        final int rounds = 100000;
+        final Throwable[] error = new Throwable[1];
+
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        request.awaitAdvance(i);
+                        response.reportHappened();
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        Thread client = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        request.reportHappened();
+                        response.awaitAdvance(i);
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            }
+        });
+        client.setDaemon(true);
+        client.start();
+
+        client.join(60000);
+        server.join(1000);
+        Assert.assertFalse("lost wakeup, client at generation " + response.generation(), 
+                client.isAlive() || server.isAlive());
+        Assert.assertNull(error[0]);
+        Assert.assertEquals(rounds, response.generation());
+    }
+
+    @Test
+    public void testTimedOutWaitersUnlinked() {
+        GenerationEvent e = new GenerationEvent();
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertFalse(e.waitForAdvanceNanos(0, 1));
+        }
+        Assert.assertEquals(0, e.nodeCount());
+    }
+
+    @Test
+    public void testManyWaitersAndReporters() throws InterruptedException {
+        final GenerationEvent e = new GenerationEvent(4);
+        final int g = e.generation();
+        final boolean[] results = new boolean[10];
+        Thread[] waiters = new Thread[results.length];
+        for (int i = 0; i < waiters.length; i++) {
+            final int index = i;
+            waiters[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = e.waitForAdvanceNanos(g, 10L * 1000 * 1000 * 1000);
+                }
+            });
+            waiters[i].start();
+        }
+
+        for (int i = 0; i < 4; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    e.reportHappened();
+                }
+            }).start();
+        }
+
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i].join();
+            Assert.assertTrue(results[i]);
+        }
+        Assert.assertEquals(g + 1, e.generation());
+    }
+
+    @Test
+    public void testAwaitInterrupted() {
+        GenerationEvent e = new GenerationEvent();
+        Thread.currentThread().interrupt();
+        try {
+            e.awaitAdvance(e.generation());
+            Assert.fail();
+        } catch (InterruptedException ex) {
+            // expected
+        }
+    }
+
+    static class StressState {
+        final GenerationEvent event = new GenerationEvent(2);
+        final int[] reports = new int[2];
+        boolean waited;
+    }
+
+    @Test
+    public void testStress() {
+        // Actors 0 and 1 report, actor 2 waits for the advance without a timeout.
+        StressRunner.check(new StressRunner.Test<StressState>() {
+            public StressState newState() {
+                return new StressState();
+            }
+
+            public void actor(int actor, StressState s) {
+                if (actor < 2) {
+                    s.reports[actor] = s.event.reportHappened();
+                } else {
+                    s.waited = s.event.waitForAdvanceNanos(0, Long.MAX_VALUE);
+                }
+            }
+
+            public String arbiter(StressState s) {
+                return s.event.generation() + "," + s.event.getRemaining() + "," + s.waited
+                        + "," + s.reports[0] + "," + s.reports[1];
+            }
+        }, 3, "1,2,true,0,0");
+    }
+
+    @Test
+    public void testHandOffs() {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            StressRunner.handOffs("GenerationEvent " + strategy, 
+                    StressRunner.generationEventHandOff(strategy), 1, 50);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package cut;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdGeneratorTest {
+
+    @Test
+    public void testRandom() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String id = IdGenerator.randomIdString();
+            Assert.assertEquals(32, id.length());
+            Assert.assertTrue(id.matches("[0-9a-f]{32}"));
+            ids.add(id);
+        }
+        Assert.assertEquals(1000, ids.size());
+    }
+
+    @Test
+    public void testHexSameAsBytes() {
+        byte[] bytes = new byte[18];
+        IdGenerator.timeOrderedId(bytes, 1);
+        long time = Bytes.bytesToLongBE(bytes, 1);
+        Assert.assertTrue(Math.abs(time / TimeResolver.UNITS_PER_MILLISECOND
+                - System.currentTimeMillis()) < 10000);
+
+        byte[] hex = new byte[34];
+        Assert.assertEquals(33, IdGenerator.randomIdHex(hex, 1));
+        Assert.assertEquals(0, hex[0]);
+        Assert.assertEquals(0, hex[33]);
+        String s = new String(hex, 1, 32);
+        Assert.assertTrue(s, s.matches("[0-9a-f]{32}"));
+    }
+
+    @Test
+    public void testTimeOrdered() {
+        String prev = IdGenerator.timeOrderedIdString();
+        char[] chars = new char[32];
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < 10000; i++) {
+            String id;
+            if (i % 2 == 0) {
+                IdGenerator.timeOrderedIdHex(chars, 0);
+                id = new String(chars);
+            } else {
+                IdGenerator.timeOrderedIdHex(bytes, 0);
+                id = new String(bytes, 0, 32);
+            }
+            Assert.assertTrue(prev + " " + id, prev.compareTo(id) < 0);
+            prev = id;
+        }
+    }
+
+    @Test
+    public void testUuid() {
+        String s = IdGenerator.randomUuidString();
+        UUID uuid = UUID.fromString(s);
+        Assert.assertEquals(s, uuid.toString());
+        Assert.assertEquals(4, uuid.version());
+        Assert.assertEquals(2, uuid.variant());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testBadOffset() {
+        IdGenerator.randomIdHex(new char[40], 9);
+    }
+}
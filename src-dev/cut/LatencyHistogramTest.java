@@ -0,0 +1,189 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (int bits = 1; bits <= 16; bits += 5) {
+            int count = (64 - bits) << bits;
+            long prevHighest = -1;
+            for (int i = 0; i < count; i++) {
+                long low = LatencyHistogram.lowestValue(bits, i);
+                long high = LatencyHistogram.highestValue(bits, i);
+                Assert.assertEquals(prevHighest + 1, low);
+                Assert.assertEquals(i, LatencyHistogram.bucketIndex(bits, low));
+                Assert.assertEquals(i, LatencyHistogram.bucketIndex(bits, high));
+                Assert.assertTrue(high - low <= low >>> bits);
+                prevHighest = high;
+            }
+            Assert.assertEquals(Long.MAX_VALUE, prevHighest);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram h = new LatencyHistogram(6, 4);
+        for (int i = 1; i <= 100000; i++) {
+            h.record(i * 1000L);
+        }
+
+        LatencyHistogram.Snapshot s = h.snapshot();
+        Assert.assertEquals(100000, s.getCount());
+        Assert.assertEquals(50000500.0, s.getMean(), 0.0);
+        assertClose(50000000, s.getPercentile(50));
+        assertClose(99000000, s.getPercentile(99));
+        assertClose(100000000, s.getPercentile(100));
+        assertClose(100000000, s.getMax());
+        assertClose(1000, s.getMin());
+        assertClose(1000, s.getPercentile(0));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram.Snapshot s = new LatencyHistogram().snapshot();
+        Assert.assertEquals(0, s.getCount());
+        Assert.assertEquals(0, s.getPercentile(99));
+        Assert.assertEquals(0, s.getMax());
+        Assert.assertEquals(0.0, s.getMean(), 0.0);
+    }
+
+    @Test
+    public void testResetAndMerge() {
+        LatencyHistogram h = new LatencyHistogram(6, 1);
+        h.record(10, 3);
+        LatencyHistogram.Snapshot s1 = h.snapshotAndReset();
+        h.record(20);
+        LatencyHistogram.Snapshot s2 = h.snapshotAndReset();
+        Assert.assertEquals(0, h.snapshot().getCount());
+
+        Assert.assertEquals(3, s1.getCount());
+        Assert.assertEquals(1, s2.getCount());
+        LatencyHistogram.Snapshot merged = s1.merge(s2);
+        Assert.assertEquals(4, merged.getCount());
+        Assert.assertEquals(50, merged.getSum());
+        Assert.assertEquals(10, merged.getPercentile(75));
+        Assert.assertEquals(20, merged.getPercentile(76));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentPrecision() {
+        new LatencyHistogram(5, 1).snapshot().merge(new LatencyHistogram(6, 1).snapshot());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegative() {
+        new LatencyHistogram().record(-1);
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final LatencyHistogram h = new LatencyHistogram(6, 8);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        h.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        long total = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                total += h.snapshotAndReset().getCount();
+            }
+            thread.join();
+        }
+        total += h.snapshotAndReset().getCount();
+        Assert.assertEquals(400000, total);
+    }
+
+    @Test
+    public void testIntervalsConsistent() throws InterruptedException {
+        // Count and sum of a value end up in the same interval.
+        final LatencyHistogram h = new LatencyHistogram(6, 2);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        h.record(7);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        long total = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                LatencyHistogram.Snapshot s = h.snapshotAndReset();
+                Assert.assertEquals(7 * s.getCount(), s.getSum());
+                total += s.getCount();
+            }
+            thread.join();
+        }
+        total += h.snapshotAndReset().getCount();
+        Assert.assertEquals(400000, total);
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertEquals(expected, actual, expected / 64.0);
+    }
+
+    @Test
+    public void testStress() {
+        // Two threads record into a histogram with two stripes; nothing may be lost.
+        StressRunner.check(new StressRunner.Test<LatencyHistogram>() {
+            public LatencyHistogram newState() {
+                return new LatencyHistogram(1, 2);
+            }
+
+            public void actor(int actor, LatencyHistogram h) {
+                h.record(actor == 0 ? 10 : 1000);
+                h.record(100);
+            }
+
+            public String arbiter(LatencyHistogram h) {
+                LatencyHistogram.Snapshot s = h.snapshot();
+                return s.getCount() + "," + s.getSum();
+            }
+        }, 2, "4,1210");
+    }
+
+    static class StressState {
+        final LatencyHistogram histogram = new LatencyHistogram(1, 1);
+        LatencyHistogram.Snapshot interval;
+    }
+
+    @Test
+    public void testStressReset() {
+        // A record racing with an interval snapshot; the value is in one of the intervals,
+        // with its count and its sum.
+        StressRunner.check(new StressRunner.Test<StressState>() {
+            public StressState newState() {
+                return new StressState();
+            }
+
+            public void actor(int actor, StressState s) {
+                if (actor == 0) {
+                    s.histogram.record(10);
+                } else {
+                    s.interval = s.histogram.snapshotAndReset();
+                }
+            }
+
+            public String arbiter(StressState s) {
+                LatencyHistogram.Snapshot rest = s.histogram.snapshot();
+                return s.interval.getCount() + "," + s.interval.getSum() 
+                        + "," + rest.getCount() + "," + rest.getSum();
+            }
+        }, 2, "1,10,0,0", "0,0,1,10");
+    }
+}
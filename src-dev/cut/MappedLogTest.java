@@ -0,0 +1,233 @@
+package cut;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MappedLogTest {
+    
+    @Test
+    public void testAppendAndIterate() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        log.append(new byte[]{1, 2, 3});
+        log.append(new byte[]{4});
+        
+        List<byte[]> records = toList(log);
+        Assert.assertEquals(2, records.size());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, records.get(0));
+        Assert.assertArrayEquals(new byte[]{4}, records.get(1));
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testRead() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        log.append(new byte[]{1, 2, 3});
+        int pos = log.append(new byte[]{5, 6});
+        Assert.assertArrayEquals(new byte[]{5, 6}, toBytes(log.read(pos)));
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testReadBadPosition() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        int pos1 = log.append(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        int pos2 = log.append(new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        int pos3 = log.append(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1});
+        
+        // Inside the payloads: a wrong checksum, a zero length and a negative length.
+        int[] positions = {pos1 + MappedLog.RECORD_HEADER_SIZE, pos2 + MappedLog.RECORD_HEADER_SIZE, 
+                pos3 + MappedLog.RECORD_HEADER_SIZE, log.position(), 0};
+        for (int position : positions) {
+            try {
+                log.read(position);
+                Assert.fail("position " + position);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        
+        Assert.assertEquals(12, log.read(pos3).remaining());
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testReopen() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        log.append(new byte[]{1, 2, 3});
+        log.append(new byte[]{4, 5});
+        int end = log.position();
+        log.close();
+        
+        log = MappedLog.open(f.getPath(), 4096);
+        Assert.assertEquals(end, log.position());
+        log.append(new byte[]{6});
+        Assert.assertEquals(3, toList(log).size());
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testTornTail() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        log.append(new byte[]{1, 2, 3});
+        int pos = log.append(new byte[]{4, 5, 6, 7});
+        log.close();
+        
+        // Corrupt the last byte of the second record.
+        
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pos + MappedLog.RECORD_HEADER_SIZE + 3);
+        raf.write(99);
+        raf.close();
+        
+        log = MappedLog.open(f.getPath(), 4096);
+        Assert.assertEquals(pos, log.position());
+        List<byte[]> records = toList(log);
+        Assert.assertEquals(1, records.size());
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, records.get(0));
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testRecordsAfterZeroHeader() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4096);
+        log.append(new byte[]{1, 2, 3});
+        int pos = log.append(new byte[]{4, 5});
+        log.append(new byte[]{6, 7, 8});
+        log.close();
+        
+        // The header of the second record never reached the disk, the third record did.
+        
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pos);
+        raf.write(new byte[MappedLog.RECORD_HEADER_SIZE]);
+        raf.close();
+        
+        log = MappedLog.open(f.getPath(), 4096);
+        Assert.assertEquals(pos, log.position());
+        log.append(new byte[]{9, 9});
+        log.close();
+        
+        // The old third record must not come back.
+        
+        log = MappedLog.open(f.getPath(), 4096);
+        List<byte[]> records = toList(log);
+        Assert.assertEquals(2, records.size());
+        Assert.assertArrayEquals(new byte[]{9, 9}, records.get(1));
+        log.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testHighWater() throws IOException {
+        File f = tempFile();
+        int capacity = 4 * MappedLog.HIGH_WATER_STEP;
+        MappedLog log = MappedLog.open(f.getPath(), capacity);
+        log.append(new byte[]{1, 2, 3});
+        int pos = log.append(new byte[]{4, 5});
+        log.close();
+        
+        // Garbage after the high-water mark is never read, so it is left as is.
+        // Garbage before it is zeroed.
+        
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek(pos + 100);
+        raf.write(7);
+        raf.seek(capacity - 1);
+        raf.write(8);
+        raf.close();
+        
+        log = MappedLog.open(f.getPath(), capacity);
+        Assert.assertEquals(2, toList(log).size());
+        log.close();
+        
+        raf = new RandomAccessFile(f, "r");
+        raf.seek(pos + 100);
+        Assert.assertEquals(0, raf.read());
+        raf.seek(capacity - 1);
+        Assert.assertEquals(8, raf.read());
+        raf.close();
+        f.delete();
+    }
+    
+    @Test
+    public void testAppendPastHighWater() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 4 * MappedLog.HIGH_WATER_STEP);
+        byte[] record = new byte[100 * 1000];
+        int count = 0;
+        while (log.position() + MappedLog.RECORD_HEADER_SIZE + record.length <= log.capacity()) {
+            record[0] = (byte) count++;
+            log.append(record);
+        }
+        log.close();
+        
+        log = MappedLog.open(f.getPath(), 4096);
+        List<byte[]> records = toList(log);
+        Assert.assertEquals(count, records.size());
+        Assert.assertEquals((byte) (count - 1), records.get(count - 1)[0]);
+        log.close();
+        f.delete();
+    }
+    
+    @Test(expected = MappedLog.FullException.class)
+    public void testFull() throws IOException {
+        File f = tempFile();
+        MappedLog log = MappedLog.open(f.getPath(), 40);
+        try {
+            log.append(new byte[10]);
+            log.append(new byte[10]);
+        } finally {
+            log.close();
+            f.delete();
+        }
+    }
+    
+    @Test(expected = MappedLog.BadFormatException.class)
+    public void testBadMagic() throws IOException {
+        File f = tempFile();
+        Io.bytesToFile(new byte[100], f.getPath());
+        try {
+            MappedLog.open(f.getPath(), 100);
+        } finally {
+            f.delete();
+        }
+    }
+    
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("MappedLogTest", ".log");
+        f.delete();
+        return f;
+    }
+    
+    private static List<byte[]> toList(MappedLog log) {
+        List<byte[]> list = new ArrayList<byte[]>();
+        for (ByteBuffer record : log) {
+            list.add(toBytes(record));
+        }
+        return list;
+    }
+    
+    private static byte[] toBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
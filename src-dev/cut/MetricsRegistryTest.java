@@ -0,0 +1,135 @@
+package cut;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testNames() {
+        MetricsRegistry r = new MetricsRegistry();
+        FrequencySensor s1 = new FrequencySensor(1, 0);
+        FrequencySensor s2 = new FrequencySensor(1, 0);
+        RateMeter m = new RateMeter(0);
+        r.register("api.users.get", s1);
+        r.register("api.users", s2);
+        r.register("apis", m);
+
+        Assert.assertEquals(Arrays.asList("api.users", "api.users.get"), r.names("api"));
+        Assert.assertEquals(Arrays.asList("api.users", "api.users.get", "apis"), r.names(""));
+        Assert.assertSame(m, r.get("apis"));
+        Assert.assertTrue(r.unregister("apis"));
+        Assert.assertFalse(r.unregister("apis"));
+        Assert.assertEquals(2, r.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicate() {
+        MetricsRegistry r = new MetricsRegistry();
+        FrequencySensor s = new FrequencySensor(1, 0);
+        r.register("a", s);
+        r.register("a", new FrequencySensor(1, 0));
+    }
+
+    @Test
+    public void testBadNames() {
+        MetricsRegistry r = new MetricsRegistry();
+        String[] names = {"", ".", "a.", ".a", "a..b", "a b", "a=b", "a,b"};
+        for (String name : names) {
+            try {
+                r.register(name, new FrequencySensor(1, 0));
+                Assert.fail("name: " + name);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testWeak() throws InterruptedException {
+        MetricsRegistry r = new MetricsRegistry();
+        r.register("gone", new FrequencySensor(1, 0));
+        for (int i = 0; i < 100 && r.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, r.size());
+
+        // The name can be used again.
+        FrequencySensor s = new FrequencySensor(1, 0);
+        r.register("gone", s);
+        Assert.assertSame(s, r.get("gone"));
+    }
+
+    @Test
+    public void testSample() {
+        MetricsRegistry r = new MetricsRegistry();
+        FrequencySensor f = new FrequencySensor(10.0, 0);
+        LatencyHistogram h = new LatencyHistogram(6, 1);
+        RateMeter m = new RateMeter(0, 1);
+        r.register("f", f);
+        r.register("h", h);
+        r.register("m", m);
+        f.tick(E9);
+        h.record(10);
+        m.tick(E9, 2);
+
+        StringBuilder b = new StringBuilder();
+        Assert.assertEquals(3, r.sample(E9, 1234, b));
+        String[] lines = b.toString().split("\n");
+        Arrays.sort(lines);
+        Assert.assertEquals("f f=" + f.getFrequency(E9) + " 1234", lines[0]);
+        Assert.assertEquals("h count=1,mean=10.0,p50=10,p90=10,p99=10,max=10 1234", lines[1]);
+        Assert.assertEquals("m count=2,f0=" + m.getRate(0, E9) + " 1234", lines[2]);
+    }
+
+    @Test
+    public void testSampler() throws InterruptedException {
+        MetricsRegistry r = new MetricsRegistry();
+        FrequencySensor f = new FrequencySensor(10.0, 0);
+        r.register("x.y", f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        r.startSampler(5, out);
+        Thread.sleep(100);
+        r.stopSampler();
+
+        String text = out.toString();
+        Assert.assertTrue(text, text.startsWith("x.y f="));
+        Assert.assertTrue(text, text.contains("\nmetrics.sample ns="));
+        Assert.assertTrue(r.getSampleTimes().getCount() > 1);
+        Assert.assertNull(r.getSamplerError());
+    }
+
+    @Test
+    public void testSamplerFileNotOpenedOnBadStart() throws IOException {
+        MetricsRegistry r = new MetricsRegistry();
+        File file = File.createTempFile("MetricsRegistryTest", ".txt");
+        file.delete();
+
+        try {
+            r.startSampler(0, file);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        r.startSampler(1000, new ByteArrayOutputStream());
+        try {
+            r.startSampler(1000, file);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            r.stopSampler();
+        }
+
+        Assert.assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,91 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MonotonicClockTest {
+    
+    /**
+     * Clock with time set by the test.
+     */
+    private static class TestClock extends MonotonicClock {
+        long nanos;
+        long millis;
+        
+        TestClock() {
+            super(1000, 2);
+        }
+        
+        protected long nanoTime() {
+            return nanos;
+        }
+        
+        protected long currentTimeMillis() {
+            return millis;
+        }
+    }
+    
+    @Test
+    public void testAnchor() {
+        TestClock clock = new TestClock();
+        clock.millis = 1000;
+        clock.nanos = 5000;
+        Assert.assertEquals(1000 * TimeResolver.UNITS_PER_MILLISECOND, clock.now());
+        
+        clock.nanos += 1234500;
+        Assert.assertEquals(1000 * TimeResolver.UNITS_PER_MILLISECOND + 12345, clock.now());
+    }
+    
+    @Test
+    public void testStrictlyIncreasing() {
+        TestClock clock = new TestClock();
+        long t1 = clock.now();
+        long t2 = clock.now();
+        long t3 = clock.now();
+        Assert.assertEquals(t1 + 1, t2);
+        Assert.assertEquals(t2 + 1, t3);
+    }
+    
+    @Test
+    public void testResync() {
+        TestClock clock = new TestClock();
+        clock.millis = 1000;
+        long t1 = clock.now();
+        
+        // Small drift, 1 ms, is kept after resync.
+        clock.nanos += 2000L * 1000000;
+        clock.millis += 2001;
+        Assert.assertEquals(t1 + 2000 * TimeResolver.UNITS_PER_MILLISECOND, clock.now());
+        
+        // Large drift, the clock is re-anchored.
+        clock.nanos += 2000L * 1000000;
+        clock.millis += 2010;
+        Assert.assertEquals(clock.millis * TimeResolver.UNITS_PER_MILLISECOND, clock.now());
+    }
+    
+    @Test
+    public void testWallClockBackwards() {
+        TestClock clock = new TestClock();
+        clock.millis = 100000;
+        long t1 = clock.now();
+        
+        clock.nanos += 2000L * 1000000;
+        clock.millis -= 50000;
+        long t2 = clock.now();
+        Assert.assertEquals(t1 + 1, t2);
+    }
+    
+    @Test
+    public void testSystemClock() throws InterruptedException {
+        MonotonicClock clock = new MonotonicClock(1000, 2);
+        long wall = System.currentTimeMillis() * TimeResolver.UNITS_PER_MILLISECOND;
+        long now = clock.now();
+        Assert.assertTrue(Math.abs(now - wall) < 1000 * TimeResolver.UNITS_PER_MILLISECOND);
+        
+        long coarse = clock.coarseNow();
+        Assert.assertTrue(coarse > 0);
+        Thread.sleep(20);
+        Assert.assertTrue(clock.coarseNow() > coarse);
+        clock.stopTicker();
+    }
+}
@@ -0,0 +1,119 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateMeterTest {
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testSameAsFrequencySensors() {
+        RateMeter meter = new RateMeter(0);
+        FrequencySensor[] sensors = {
+                new FrequencySensor(1, 0), new FrequencySensor(60, 0),
+                new FrequencySensor(300, 0), new FrequencySensor(900, 0)};
+
+        java.util.Random random = new java.util.Random(2);
+        long time = 0;
+        for (int i = 0; i < 2000; i++) {
+            time += 1 + random.nextInt(100 * 1000 * 1000);
+            meter.tick(time);
+            for (FrequencySensor sensor : sensors) {
+                sensor.tick(time);
+            }
+        }
+
+        RateMeter.Snapshot snapshot = meter.snapshot(time + 1000);
+        Assert.assertEquals(2000, snapshot.getCount());
+        Assert.assertEquals(4, snapshot.size());
+        for (int i = 0; i < sensors.length; i++) {
+            double expected = sensors[i].getFrequency(time + 1000);
+            Assert.assertEquals(expected, snapshot.getRate(i), expected * 1e-9);
+            Assert.assertEquals(expected, meter.getRate(i, time + 1000), expected * 1e-9);
+        }
+        Assert.assertEquals(900.0, snapshot.getHalfLife(3), 0.0);
+    }
+
+    @Test
+    public void testShortAndLongTerm() {
+        RateMeter meter = new RateMeter(0, 1, 100);
+        for (int i = 1; i <= 10000; i++) {
+            meter.tick(i * E9 / 100);    // 100 Hz for 100 s
+        }
+
+        // Short-term rate near 100 Hz, long-term rate still rising.
+        RateMeter.Snapshot s = meter.snapshot(100 * E9);
+        Assert.assertEquals(100.0, s.getRate(0), 1.0);
+        Assert.assertEquals(50.0, s.getRate(1), 1.0);
+
+        // Idle for 10 s.
+        s = meter.snapshot(110 * E9);
+        Assert.assertTrue(s.getRate(0) < 0.1);
+        Assert.assertTrue(s.getRate(1) > 40);
+        Assert.assertEquals(10000, s.getCount());
+    }
+
+    @Test
+    public void testBatch() {
+        RateMeter meter = new RateMeter(0, 10);
+        meter.tick(E9, 1000);
+        meter.tick(E9, 0);
+        Assert.assertEquals(1000, meter.getCount());
+        double f = meter.getRate(0, E9);
+        Assert.assertEquals(1000 * (1 - Math.pow(2, -0.1)), f, 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoHalfLives() {
+        new RateMeter(0, new double[0]);
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final RateMeter meter = new RateMeter(0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 1; i <= 50000; i++) {
+                        meter.tick(i * 20000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(200000, meter.getCount());
+    }
+
+    @Test
+    public void testStress() {
+        // Two ticks racing; the snapshot CAS makes the result one of the sequential ones.
+        StressRunner.check(new StressRunner.Test<RateMeter>() {
+            public RateMeter newState() {
+                return new RateMeter(0, 10.0);
+            }
+
+            public void actor(int actor, RateMeter meter) {
+                meter.tick((actor + 1) * E9);
+            }
+
+            public String arbiter(RateMeter meter) {
+                return outcome(meter);
+            }
+        }, 2, sequential(E9, 2 * E9), sequential(2 * E9, E9));
+    }
+
+    private static String sequential(long time1, long time2) {
+        RateMeter meter = new RateMeter(0, 10.0);
+        meter.tick(time1);
+        meter.tick(time2);
+        return outcome(meter);
+    }
+
+    private static String outcome(RateMeter meter) {
+        return meter.getCount() + "," + meter.getRate(0, 3 * E9);
+    }
+}
@@ -0,0 +1,136 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ScheduleExplorerTest {
+
+    /**
+     * Two threads increment a counter with read and write in separate steps.
+     */
+    static class RacyCounter implements ScheduleExplorer.Scenario {
+        int counter;
+
+        public Runnable[] setUp() {
+            counter = 0;
+            Runnable r = new Runnable() {
+                public void run() {
+                    assert TestableThread.breakpoint("counter:read");
+                    int value = counter;
+                    assert TestableThread.breakpoint("counter:write");
+                    counter = value + 1;
+                }
+            };
+            return new Runnable[] {r, r};
+        }
+
+        public void check() {
+            Assert.assertEquals(2, counter);
+        }
+    }
+
+    @Test
+    public void testFindsRace() {
+        ScheduleExplorer explorer = new ScheduleExplorer();
+        ScheduleExplorer.Result result = explorer.exploreAll(new RacyCounter(), 1000);
+        Assert.assertTrue(result.toString(), result.isFailed());
+        Assert.assertTrue(result.getFailure() instanceof AssertionError);
+
+        // The failing schedule fails again.
+        ScheduleExplorer.Result replay = explorer.replay(new RacyCounter(), result.getSchedule());
+        Assert.assertTrue(replay.isFailed());
+        Assert.assertEquals(result.toString().substring(result.toString().indexOf('\n')),
+                replay.toString().substring(replay.toString().indexOf('\n')));
+    }
+
+    @Test
+    public void testRandomFindsRace() {
+        ScheduleExplorer explorer = new ScheduleExplorer();
+        ScheduleExplorer.Result r1 = explorer.exploreRandom(new RacyCounter(), 1, 1000);
+        ScheduleExplorer.Result r2 = explorer.exploreRandom(new RacyCounter(), 1, 1000);
+        Assert.assertTrue(r1.isFailed());
+        Assert.assertEquals(r1.toString(), r2.toString());
+    }
+
+    @Test
+    public void testNoRace() {
+        ScheduleExplorer.Result result = new ScheduleExplorer().exploreAll(
+                new ScheduleExplorer.Scenario() {
+            AtomicInteger counter;
+
+            public Runnable[] setUp() {
+                counter = new AtomicInteger();
+                Runnable r = new Runnable() {
+                    public void run() {
+                        assert TestableThread.breakpoint("counter:inc");
+                        counter.incrementAndGet();
+                        assert TestableThread.breakpoint("counter:inc");
+                        counter.incrementAndGet();
+                    }
+                };
+                return new Runnable[] {r, r, r};
+            }
+
+            public void check() {
+                Assert.assertEquals(6, counter.get());
+            }
+        }, 100000);
+
+        Assert.assertTrue(result.toString(), result.isComplete());
+        Assert.assertFalse(result.isFailed());
+    }
+
+    @Test
+    public void testPartialOrderReduction() {
+        int dependent = countSchedules("x:", "x:");
+        int independent = countSchedules("a:", "b:");
+        Assert.assertTrue(dependent + " " + independent, independent < dependent);
+    }
+
+    @Test
+    public void testThreadException() {
+        ScheduleExplorer.Result result = new ScheduleExplorer().exploreAll(
+                new ScheduleExplorer.Scenario() {
+            public Runnable[] setUp() {
+                return new Runnable[] {new Runnable() {
+                    public void run() {
+                        assert TestableThread.breakpoint("a");
+                        throw new IllegalStateException("test");
+                    }
+                }};
+            }
+
+            public void check() {
+            }
+        }, 10);
+
+        Assert.assertTrue(result.getFailure() instanceof IllegalStateException);
+        Assert.assertEquals(2, result.getSchedule().length);
+    }
+
+    private static int countSchedules(final String prefix1, final String prefix2) {
+        ScheduleExplorer.Result result = new ScheduleExplorer().exploreAll(
+                new ScheduleExplorer.Scenario() {
+            public Runnable[] setUp() {
+                return new Runnable[] {steps(prefix1), steps(prefix2)};
+            }
+
+            public void check() {
+            }
+        }, 100000);
+        Assert.assertTrue(result.isComplete());
+        return result.getSchedules();
+    }
+
+    private static Runnable steps(final String prefix) {
+        return new Runnable() {
+            public void run() {
+                for (int i = 0; i < 4; i++) {
+                    assert TestableThread.breakpoint(prefix + i);
+                }
+            }
+        };
+    }
+}
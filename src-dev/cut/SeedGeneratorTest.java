@@ -1,5 +1,11 @@
 package cut;
 
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
 import org.junit.Test;
 
 public class SeedGeneratorTest {
@@ -11,4 +17,99 @@ public class SeedGeneratorTest {
         g.moreEntropy();
         g.getSeed();
 	}
+
+    @Test
+    public void testSeedsDiffer() {
+        SeedGenerator g = new SeedGenerator();
+        byte[] seed1 = g.getSeed();
+        byte[] seed2 = g.getSeed();
+        Assert.assertEquals(128, seed1.length);
+        Assert.assertFalse(Arrays.equals(seed1, seed2));
+        Assert.assertFalse(Arrays.equals(seed1, new SeedGenerator().getSeed()));
+    }
+
+    @Test
+    public void testOutputIsSha256() throws Exception {
+        // Data sizes around the 64-byte block size.
+        for (int longs = 0; longs < 20; longs++) {
+            SeedGenerator g = new SeedGenerator(true);
+            byte[] data = new byte[longs * 8 + 4];
+            for (int i = 0; i < longs; i++) {
+                long value = i * 0x9E3779B97F4A7C15L;
+                g.addData(value);
+                Bytes.longToBytesBE(value, data, 8 * i);
+            }
+
+            byte[] seed = new byte[128];
+            g.output(seed, 0);
+
+            for (int j = 0; j < 4; j++) {
+                Bytes.intToBytesBE(j, data, longs * 8);
+                byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+                byte[] actual = Arrays.copyOfRange(seed, 32 * j, 32 * j + 32);
+                Assert.assertTrue("longs=" + longs + ", j=" + j, Arrays.equals(expected, actual));
+            }
+        }
+    }
+
+    @Test
+    public void testDaemon() throws InterruptedException {
+        final SeedGenerator g = new SeedGenerator();
+        g.startDaemon(10);
+        Thread.sleep(50);
+
+        final Set<String> seeds = new HashSet<String>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        String seed = Hex.create(g.getSeed());
+                        synchronized (seeds) {
+                            seeds.add(seed);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        g.stopDaemon();
+        Assert.assertEquals(400, seeds.size());
+        Assert.assertEquals(128, g.getSeed().length);
+    }
+    static class StressState {
+        final byte[][] seeds = new byte[3][];
+    }
+
+    @Test
+    public void testStress() {
+        // Three actors get seeds from a shared generator; all seeds must differ.
+        final SeedGenerator g = new SeedGenerator();
+        g.startDaemon(1);
+
+        try {
+            StressRunner.check(new StressRunner.Test<StressState>() {
+                public StressState newState() {
+                    return new StressState();
+                }
+
+                public void actor(int actor, StressState s) {
+                    s.seeds[actor] = g.getSeed();
+                }
+
+                public String arbiter(StressState s) {
+                    boolean distinct = !Arrays.equals(s.seeds[0], s.seeds[1])
+                            && !Arrays.equals(s.seeds[0], s.seeds[2])
+                            && !Arrays.equals(s.seeds[1], s.seeds[2]);
+                    return distinct ? "distinct" : "equal";
+                }
+            }, 3, "distinct");
+        } finally {
+            g.stopDaemon();
+        }
+    }
 }
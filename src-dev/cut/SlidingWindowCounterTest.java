@@ -0,0 +1,92 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlidingWindowCounterTest {
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testWindow() {
+        SlidingWindowCounter c = new SlidingWindowCounter(E9, 10, 0);
+        for (int s = 0; s < 20; s++) {
+            c.add(s * E9 + 5, s);
+        }
+
+        // Buckets 10..19.
+        Assert.assertEquals(145, c.getCount(19 * E9));
+        Assert.assertEquals(19, c.getCount(19 * E9, 1));
+        Assert.assertEquals(19 + 18 + 17, c.getCount(19 * E9 + E9 - 1, 3));
+
+        // Buckets 11..20, bucket 20 is empty.
+        Assert.assertEquals(145 - 10, c.getCount(20 * E9));
+        Assert.assertEquals(0, c.getCount(100 * E9));
+    }
+
+    @Test
+    public void testLazyRotation() {
+        SlidingWindowCounter c = new SlidingWindowCounter(1000, 4, 0);
+        c.increment(0);
+        c.increment(1000);
+        c.increment(4000);    // reuses the bucket of time 0
+        Assert.assertEquals(2, c.getCount(4000));
+        Assert.assertEquals(1, c.getCount(4000, 1));
+
+        // Too old, ignored.
+        c.increment(0);
+        Assert.assertEquals(2, c.getCount(4000));
+
+        // Old but within the window.
+        c.increment(1500);
+        Assert.assertEquals(3, c.getCount(4000));
+    }
+
+    @Test
+    public void testNegativeTimes() {
+        SlidingWindowCounter c = new SlidingWindowCounter(10, 3, -5000);
+        c.increment(-5000);
+        c.increment(-4995);
+        c.increment(-5001);    // before start, ignored
+        Assert.assertEquals(2, c.getCount(-4990));
+        Assert.assertEquals(0, c.getCount(-4960));
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final SlidingWindowCounter c = new SlidingWindowCounter(1000, 16, 0);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        c.increment(i % 16000);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(400000, c.getCount(15999));
+    }
+
+    @Test
+    public void testStress() {
+        // Actors 0 and 1 count in lap 1 of bucket 1, actor 2 in lap 0 of the same bucket.
+        // The lap 1 counts must both be kept, the lap 0 count must not be.
+        StressRunner.check(new StressRunner.Test<SlidingWindowCounter>() {
+            public SlidingWindowCounter newState() {
+                return new SlidingWindowCounter(E9, 4, 0);
+            }
+
+            public void actor(int actor, SlidingWindowCounter c) {
+                c.increment(actor == 2 ? E9 : 5 * E9);
+            }
+
+            public String arbiter(SlidingWindowCounter c) {
+                return Long.toString(c.getCount(5 * E9, 1));
+            }
+        }, 3, "2");
+    }
+}
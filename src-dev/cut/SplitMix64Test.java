@@ -0,0 +1,50 @@
+package cut;
+
+import java.util.SplittableRandom;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SplitMix64Test {
+
+    @Test
+    public void testSameAsSplittableRandom() {
+        SplitMix64 r = new SplitMix64(1234567);
+        SplittableRandom expected = new SplittableRandom(1234567);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(expected.nextLong(), r.nextLong());
+        }
+    }
+
+    @Test
+    public void testBulk() {
+        SplitMix64 r1 = new SplitMix64(1);
+        SplitMix64 r2 = new SplitMix64(1);
+        long[] longs = new long[10];
+        r1.nextLongs(longs, 1, 8);
+        Assert.assertEquals(0, longs[0]);
+        for (int i = 1; i <= 8; i++) {
+            Assert.assertEquals(r2.nextLong(), longs[i]);
+        }
+        Assert.assertEquals(0, longs[9]);
+
+        byte[] bytes = new byte[11];
+        r1.nextBytes(bytes);
+        long value = r2.nextLong();
+        Assert.assertEquals(value, Bytes.bytesToLongLE(bytes, 0));
+        Assert.assertEquals((byte) r2.nextLong(), bytes[8]);
+    }
+
+    @Test
+    public void testCurrentAndSplit() {
+        SplitMix64 r = SplitMix64.current();
+        Assert.assertSame(r, SplitMix64.current());
+        Assert.assertTrue(r.split().nextLong() != r.split().nextLong());
+        for (int i = 0; i < 1000; i++) {
+            int v = r.nextInt(7);
+            Assert.assertTrue(v >= 0 && v < 7);
+            double d = r.nextDouble();
+            Assert.assertTrue(d >= 0.0 && d < 1.0);
+        }
+    }
+}
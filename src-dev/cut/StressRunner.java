@@ -0,0 +1,617 @@
+package cut;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs concurrency stress tests, in the style of jcstress. Complements the
+ * deterministic break points of TestableThread and ScheduleExplorer.
+ *
+ * <p>outcomes() runs an actor/arbiter test for a fixed time. Each actor runs in its
+ * own thread. The threads walk through batches of fresh states in lockstep, so the
+ * actors race on each state. When a batch is done, the arbiter of each state returns
+ * an outcome string. The outcomes are counted and compared with the acceptable ones.</p>
+ *
+ * <p>throughput() runs an operation from 1..maxThreads threads, a fixed time per thread
+ * count, and reports operations per second for each thread count; a scaling curve.
+ * handOffs() does the same for round trips between pairs of threads, the case where
+ * one thread signals another. main() prints the curves of the primitives of cut.</p>
+ */
+public class StressRunner {
+    private static final int BATCH_SIZE = 1024;
+
+    /** Time to run an actor/arbiter test in check(). */
+    public static final long CHECK_MILLIS = 200;
+
+    /**
+     * An actor/arbiter test with state type S.
+     */
+    public interface Test<S> {
+        /**
+         * Creates a fresh state.
+         */
+        S newState();
+
+        /**
+         * Runs actor number actor on a state.
+         */
+        void actor(int actor, S state);
+
+        /**
+         * Returns the outcome of a state after all actors have run on it.
+         */
+        String arbiter(S state);
+    }
+
+    /**
+     * An operation for throughput measurements.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation once.
+         *
+         * @param thread  The thread index, 0..threadCount-1.
+         */
+        void run(int thread);
+    }
+
+    /**
+     * Round trips between two threads, with pair state type P. A round is a signal from
+     * the ping thread to the pong thread and a reply back.
+     */
+    public interface HandOff<P> {
+        /**
+         * Creates the state shared by a new pair of threads.
+         */
+        P newPair();
+
+        /**
+         * Run by the ping thread. Signals the given round and waits for the reply.
+         */
+        void ping(P pair, int round);
+
+        /**
+         * Run by the pong thread. Waits for the given round and replies. Returns
+         * directly, without replying, if the thread is interrupted.
+         */
+        void pong(P pair, int round);
+    }
+
+    /**
+     * Observed outcomes of an actor/arbiter test.
+     */
+    public static final class Outcomes {
+        private final Map<String, Long> counts = new TreeMap<String, Long>();
+        private final Set<String> acceptable;
+        private long samples;
+
+        Outcomes(String[] acceptable) {
+            this.acceptable = new HashSet<String>(Arrays.asList(acceptable));
+        }
+
+        void add(String outcome) {
+            Long count = counts.get(outcome);
+            counts.put(outcome, count == null ? 1 : count + 1);
+            samples++;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * Returns how many times an outcome was observed.
+         */
+        public long getCount(String outcome) {
+            Long count = counts.get(outcome);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * Returns true if all observed outcomes are acceptable.
+         */
+        public boolean isAcceptable() {
+            return acceptable.containsAll(counts.keySet());
+        }
+
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append("samples=").append(samples);
+            for (Map.Entry<String, Long> entry : counts.entrySet()) {
+                b.append("\n  ").append(acceptable.contains(entry.getKey()) ? "ACCEPTABLE " : "FORBIDDEN  ");
+                b.append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * Throughput per thread count.
+     */
+    public static final class Throughput {
+        private final String name;
+        private final String unit;
+        private final double[] opsPerSecond;
+
+        Throughput(String name, String unit, double[] opsPerSecond) {
+            this.name = name;
+            this.unit = unit;
+            this.opsPerSecond = opsPerSecond;
+        }
+
+        /**
+         * Returns the max number of threads, or pairs of threads for handOffs().
+         */
+        public int getMaxThreads() {
+            return opsPerSecond.length;
+        }
+
+        /**
+         * Returns the total operations (or round trips) per second with threadCount
+         * threads (or pairs).
+         */
+        public double getOpsPerSecond(int threadCount) {
+            return opsPerSecond[threadCount - 1];
+        }
+
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append(name);
+            for (int i = 0; i < opsPerSecond.length; i++) {
+                b.append(String.format("\n  %s=%d, ops/s=%.0f, per %s=%.0f, scaling=%.2f",
+                        unit, i + 1, opsPerSecond[i], unit.substring(0, unit.length() - 1),
+                        opsPerSecond[i] / (i + 1), opsPerSecond[i] / opsPerSecond[0]));
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * Runs an actor/arbiter test for CHECK_MILLIS and checks the outcomes.
+     *
+     * @throws AssertionError  If a forbidden outcome is observed or an actor fails.
+     *      The message lists all outcomes.
+     */
+    public static <S> Outcomes check(Test<S> test, int actorCount, String... acceptable) {
+        Outcomes result = outcomes(test, actorCount, acceptable, CHECK_MILLIS);
+        if (!result.isAcceptable()) {
+            throw new AssertionError(result.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Runs an actor/arbiter test.
+     *
+     * @param actorCount  Number of actors, one thread each.
+     * @param acceptable  The acceptable outcomes.
+     * @param millis  Time to run.
+     * @throws AssertionError  If an actor throws an exception.
+     */
+    public static <S> Outcomes outcomes(final Test<S> test, final int actorCount,
+            String[] acceptable, long millis) {
+        if (actorCount < 1) {
+            throw new IllegalArgumentException("actorCount < 1 not allowed");
+        }
+
+        final Outcomes outcomes = new Outcomes(acceptable);
+        final long deadline = System.nanoTime() + millis * 1000000;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Object[][] batch = new Object[1][];
+        final boolean[] done = new boolean[1];
+
+        // The barrier action runs between batches when all actors wait; it tallies the
+        // outcomes of the last batch and creates the next one.
+        final CyclicBarrier barrier = new CyclicBarrier(actorCount, new Runnable() {
+            @SuppressWarnings("unchecked")
+            public void run() {
+                if (batch[0] != null) {
+                    for (Object state : batch[0]) {
+                        outcomes.add(test.arbiter((S) state));
+                    }
+                }
+                if (System.nanoTime() - deadline >= 0 || error.get() != null) {
+                    done[0] = true;
+                    return;
+                }
+                Object[] states = new Object[BATCH_SIZE];
+                for (int i = 0; i < states.length; i++) {
+                    states[i] = test.newState();
+                }
+                batch[0] = states;
+            }
+        });
+
+        Thread[] threads = new Thread[actorCount];
+        for (int a = 0; a < actorCount; a++) {
+            final int actor = a;
+            threads[a] = new Thread(new Runnable() {
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    try {
+                        while (true) {
+                            barrier.await();
+                            if (done[0]) {
+                                break;
+                            }
+                            for (Object state : batch[0]) {
+                                try {
+                                    test.actor(actor, (S) state);
+                                } catch (Throwable e) {
+                                    error.compareAndSet(null, e);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        // Interrupted, a broken barrier or a failing arbiter.
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }, "StressRunner-actor" + a);
+            threads[a].start();
+        }
+
+        join(threads);
+
+        if (error.get() != null) {
+            throw new AssertionError("actor failed: " + error.get());
+        }
+        return outcomes;
+    }
+
+    /**
+     * Measures throughput of an operation run by 1..maxThreads threads.
+     *
+     * @param name  Name of the measurement, used by toString().
+     * @param millis  Time to run for each thread count.
+     */
+    public static Throughput throughput(String name, final Operation operation,
+            int maxThreads, long millis) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads < 1 not allowed");
+        }
+
+        double[] result = new double[maxThreads];
+
+        for (int n = 1; n <= maxThreads; n++) {
+            final long[] counts = new long[n];
+            final AtomicBoolean stop = new AtomicBoolean();
+            final ToWaitFor start = new ToWaitFor();
+            Thread[] threads = new Thread[n];
+
+            for (int t = 0; t < n; t++) {
+                final int thread = t;
+                threads[t] = new Thread(new Runnable() {
+                    public void run() {
+                        start.waitForItNanos(Long.MAX_VALUE);
+                        long count = 0;
+                        while (!stop.get()) {
+                            for (int i = 0; i < 64; i++) {
+                                operation.run(thread);
+                            }
+                            count += 64;
+                        }
+                        counts[thread] = count;
+                    }
+                }, "StressRunner-op" + t);
+                threads[t].start();
+            }
+
+            long t0 = System.nanoTime();
+            start.reportHappened();
+            sleep(millis);
+            stop.set(true);
+            join(threads);
+            long t1 = System.nanoTime();
+
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            result[n - 1] = total / (1e-9 * (t1 - t0));
+        }
+
+        return new Throughput(name, "threads", result);
+    }
+
+    /**
+     * Measures round trips of 1..maxPairs pairs of threads, each pair with its own state.
+     *
+     * @param name  Name of the measurement, used by toString().
+     * @param millis  Time to run for each number of pairs.
+     * @throws AssertionError  If a ping thread is still waiting for a reply 10 s after the
+     *      time is out, a lost wakeup.
+     */
+    public static <P> Throughput handOffs(String name, final HandOff<P> handOff,
+            int maxPairs, long millis) {
+        if (maxPairs < 1) {
+            throw new IllegalArgumentException("maxPairs < 1 not allowed");
+        }
+
+        double[] result = new double[maxPairs];
+
+        for (int n = 1; n <= maxPairs; n++) {
+            final long[] counts = new long[n];
+            final AtomicBoolean stop = new AtomicBoolean();
+            final long deadline = System.nanoTime() + millis * 1000000;
+            Thread[] pings = new Thread[n];
+            Thread[] pongs = new Thread[n];
+
+            for (int t = 0; t < n; t++) {
+                final int index = t;
+                final P pair = handOff.newPair();
+                pings[t] = new Thread(new Runnable() {
+                    public void run() {
+                        int round = 0;
+                        while (System.nanoTime() - deadline < 0) {
+                            handOff.ping(pair, round++);
+                        }
+                        counts[index] = round;
+                    }
+                }, "StressRunner-ping" + t);
+                pongs[t] = new Thread(new Runnable() {
+                    public void run() {
+                        for (int round = 0; !stop.get(); round++) {
+                            handOff.pong(pair, round);
+                        }
+                    }
+                }, "StressRunner-pong" + t);
+                pings[t].setDaemon(true);
+                pongs[t].setDaemon(true);
+            }
+
+            long t0 = System.nanoTime();
+            for (int t = 0; t < n; t++) {
+                pongs[t].start();
+                pings[t].start();
+            }
+
+            for (Thread ping : pings) {
+                try {
+                    ping.join(millis + 10000);
+                } catch (InterruptedException e) {
+                    throw new Error("not expected: " + e);
+                }
+                if (ping.isAlive()) {
+                    throw new AssertionError(name + ": ping thread waits for a reply, lost wakeup?");
+                }
+            }
+            long t1 = System.nanoTime();
+
+            // The pong threads wait for rounds that never come; interrupt until they stop.
+            stop.set(true);
+            for (Thread pong : pongs) {
+                while (pong.isAlive()) {
+                    pong.interrupt();
+                    try {
+                        pong.join(1);
+                    } catch (InterruptedException e) {
+                        throw new Error("not expected: " + e);
+                    }
+                }
+            }
+
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            result[n - 1] = total / (1e-9 * (t1 - t0));
+        }
+
+        return new Throughput(name, "pairs", result);
+    }
+
+    /**
+     * Returns the number of available processors.
+     */
+    public static int cores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Prints throughput scaling curves of the concurrent primitives of cut.
+     *
+     * @param args  Optional time per thread count in milliseconds, default 1000.
+     */
+    public static void main(String[] args) {
+        long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        int cores = cores();
+        int pairs = Math.max(1, cores / 2);
+
+        final FrequencySensor frequencySensor = new FrequencySensor(10.0, System.nanoTime());
+        System.out.println(throughput("FrequencySensor.tick", new Operation() {
+            public void run(int thread) {
+                frequencySensor.tick();
+            }
+        }, cores, millis));
+
+        final ConcurrentFrequencySensor concurrentSensor =
+                new ConcurrentFrequencySensor(10.0, System.nanoTime());
+        System.out.println(throughput("ConcurrentFrequencySensor.tick", new Operation() {
+            public void run(int thread) {
+                concurrentSensor.tick();
+            }
+        }, cores, millis));
+
+        final RateMeter rateMeter = new RateMeter(System.nanoTime());
+        System.out.println(throughput("RateMeter.tick", new Operation() {
+            public void run(int thread) {
+                rateMeter.tick();
+            }
+        }, cores, millis));
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        System.out.println(throughput("LatencyHistogram.record", new Operation() {
+            public void run(int thread) {
+                histogram.record(thread + 1000);
+            }
+        }, cores, millis));
+
+        final TokenBucket bucket = new TokenBucket(1e6, 1000, System.nanoTime());
+        System.out.println(throughput("TokenBucket.tryAcquire", new Operation() {
+            public void run(int thread) {
+                bucket.tryAcquire(System.nanoTime());
+            }
+        }, cores, millis));
+
+        final SlidingWindowCounter counter =
+                new SlidingWindowCounter(1000000, 64, System.nanoTime());
+        System.out.println(throughput("SlidingWindowCounter.increment", new Operation() {
+            public void run(int thread) {
+                counter.increment(System.nanoTime());
+            }
+        }, cores, millis));
+
+        final SeedGenerator seedGenerator = new SeedGenerator();
+        System.out.println(throughput("SeedGenerator.getSeed", new Operation() {
+            public void run(int thread) {
+                seedGenerator.getSeed();
+            }
+        }, cores, millis));
+
+        System.out.println(handOffs("ToWaitFor", toWaitForHandOff(WaitStrategy.BLOCKING),
+                pairs, millis));
+        System.out.println(handOffs("EventToWaitFor", eventHandOff(WaitStrategy.BLOCKING),
+                pairs, millis));
+        System.out.println(handOffs("GenerationEvent",
+                generationEventHandOff(WaitStrategy.BLOCKING), pairs, millis));
+    }
+
+    /**
+     * A round of single-use events. Each round links to the next one, created by the ping
+     * thread before it signals the round.
+     */
+    static final class Round<E> {
+        final E request;
+        final E response;
+        volatile Round<E> next;
+
+        Round(E request, E response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /**
+     * The rounds of a pair; each thread follows the chain of rounds with its own cursor.
+     */
+    static final class Rounds<E> {
+        Round<E> ping;
+        Round<E> pong;
+
+        Rounds(Round<E> first) {
+            this.ping = first;
+            this.pong = first;
+        }
+    }
+
+    /**
+     * Hand-offs with new ToWaitFor instances for each round.
+     */
+    static HandOff<Rounds<ToWaitFor>> toWaitForHandOff(final WaitStrategy strategy) {
+        return new HandOff<Rounds<ToWaitFor>>() {
+            public Rounds<ToWaitFor> newPair() {
+                return new Rounds<ToWaitFor>(newRound());
+            }
+
+            public void ping(Rounds<ToWaitFor> pair, int round) {
+                Round<ToWaitFor> r = pair.ping;
+                r.next = newRound();
+                r.request.reportHappened();
+                r.response.waitForItNanos(Long.MAX_VALUE);
+                pair.ping = r.next;
+            }
+
+            public void pong(Rounds<ToWaitFor> pair, int round) {
+                Round<ToWaitFor> r = pair.pong;
+                if (r.request.waitForItNanos(Long.MAX_VALUE)) {
+                    pair.pong = r.next;
+                    r.response.reportHappened();
+                }
+            }
+
+            private Round<ToWaitFor> newRound() {
+                return new Round<ToWaitFor>(new ToWaitFor(strategy), new ToWaitFor(strategy));
+            }
+        };
+    }
+
+    /**
+     * Hand-offs with new EventToWaitFor instances for each round.
+     */
+    static HandOff<Rounds<EventToWaitFor>> eventHandOff(final WaitStrategy strategy) {
+        return new HandOff<Rounds<EventToWaitFor>>() {
+            public Rounds<EventToWaitFor> newPair() {
+                return new Rounds<EventToWaitFor>(newRound());
+            }
+
+            public void ping(Rounds<EventToWaitFor> pair, int round) {
+                Round<EventToWaitFor> r = pair.ping;
+                r.next = newRound();
+                r.request.happened();
+                r.response.waitForEventNanos(Long.MAX_VALUE);
+                pair.ping = r.next;
+            }
+
+            public void pong(Rounds<EventToWaitFor> pair, int round) {
+                Round<EventToWaitFor> r = pair.pong;
+                if (r.request.waitForEventNanos(Long.MAX_VALUE)) {
+                    pair.pong = r.next;
+                    r.response.happened();
+                }
+            }
+
+            private Round<EventToWaitFor> newRound() {
+                return new Round<EventToWaitFor>(new EventToWaitFor(strategy),
+                        new EventToWaitFor(strategy));
+            }
+        };
+    }
+
+    /**
+     * Hand-offs with two reused GenerationEvents; round r waits for generation r to advance.
+     */
+    static HandOff<GenerationEvent[]> generationEventHandOff(final WaitStrategy strategy) {
+        return new HandOff<GenerationEvent[]>() {
+            public GenerationEvent[] newPair() {
+                return new GenerationEvent[] {
+                        new GenerationEvent(1, strategy), new GenerationEvent(1, strategy)};
+            }
+
+            public void ping(GenerationEvent[] pair, int round) {
+                pair[0].reportHappened();
+                pair[1].waitForAdvanceNanos(round, Long.MAX_VALUE);
+            }
+
+            public void pong(GenerationEvent[] pair, int round) {
+                if (pair[0].waitForAdvanceNanos(round, Long.MAX_VALUE)) {
+                    pair[1].reportHappened();
+                }
+            }
+        };
+    }
+
+    private static void join(Thread[] threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new Error("not expected: " + e);
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new Error("not expected: " + e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StressRunnerTest {
+
+    @Test
+    public void testOutcomes() {
+        StressRunner.Outcomes outcomes = StressRunner.outcomes(new StressRunner.Test<AtomicInteger>() {
+            public AtomicInteger newState() {
+                return new AtomicInteger();
+            }
+
+            public void actor(int actor, AtomicInteger state) {
+                state.incrementAndGet();
+            }
+
+            public String arbiter(AtomicInteger state) {
+                return Integer.toString(state.get());
+            }
+        }, 2, new String[] {"2"}, 50);
+
+        Assert.assertTrue(outcomes.toString(), outcomes.isAcceptable());
+        Assert.assertTrue(outcomes.getSamples() > 0);
+        Assert.assertEquals(outcomes.getSamples(), outcomes.getCount("2"));
+    }
+
+    @Test
+    public void testForbidden() {
+        StressRunner.Outcomes outcomes = StressRunner.outcomes(new StressRunner.Test<Object>() {
+            public Object newState() {
+                return null;
+            }
+
+            public void actor(int actor, Object state) {
+            }
+
+            public String arbiter(Object state) {
+                return "bad";
+            }
+        }, 1, new String[] {"good"}, 10);
+
+        Assert.assertFalse(outcomes.isAcceptable());
+        Assert.assertTrue(outcomes.toString().contains("FORBIDDEN  bad"));
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testActorFails() {
+        StressRunner.outcomes(new StressRunner.Test<Object>() {
+            public Object newState() {
+                return null;
+            }
+
+            public void actor(int actor, Object state) {
+                throw new IllegalStateException();
+            }
+
+            public String arbiter(Object state) {
+                return "";
+            }
+        }, 2, new String[0], 10);
+    }
+
+    @Test
+    public void testThroughput() {
+        final AtomicInteger counter = new AtomicInteger();
+        StressRunner.Throughput throughput = StressRunner.throughput("counter",
+                new StressRunner.Operation() {
+            public void run(int thread) {
+                counter.incrementAndGet();
+            }
+        }, 2, 10);
+
+        Assert.assertEquals(2, throughput.getMaxThreads());
+        Assert.assertTrue(throughput.getOpsPerSecond(2) > 0);
+        Assert.assertTrue(throughput.toString().contains("threads=2"));
+    }
+
+    @Test
+    public void testCheck() {
+        try {
+            StressRunner.check(new StressRunner.Test<Object>() {
+                public Object newState() {
+                    return null;
+                }
+
+                public void actor(int actor, Object state) {
+                }
+
+                public String arbiter(Object state) {
+                    return "bad";
+                }
+            }, 1, "good");
+            Assert.fail();
+        } catch (AssertionError e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("FORBIDDEN  bad"));
+        }
+    }
+
+    @Test
+    public void testHandOffs() {
+        StressRunner.Throughput throughput = StressRunner.handOffs("GenerationEvent",
+                StressRunner.generationEventHandOff(WaitStrategy.BLOCKING), 2, 20);
+        Assert.assertEquals(2, throughput.getMaxThreads());
+        Assert.assertTrue(throughput.getOpsPerSecond(1) > 0);
+        Assert.assertTrue(throughput.toString(), throughput.toString().contains("pairs=2"));
+    }
+}
@@ -0,0 +1,74 @@
+package cut;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimeFormatterTest {
+    
+    @Test
+    public void testFormat() {
+        long time = TimeResolver.resolveAbsolute(TimeResolver.UTC, "2013-08-19 14:29:10.1234567");
+        TimeFormatter f = new TimeFormatter(TimeResolver.UTC);
+        Assert.assertEquals("2013-08-19 14:29:10.1234567", f.format(time));
+        Assert.assertEquals("1970-01-01 00:00:00.0000000", f.format(0));
+        Assert.assertEquals("1969-12-31 23:59:59.9999999", f.format(-1));
+    }
+    
+    @Test
+    public void testOutputs() throws Exception {
+        long time = TimeResolver.resolveAbsolute(TimeResolver.UTC, "2000-02-29 23:01:02.0000003");
+        TimeFormatter f = new TimeFormatter(TimeResolver.UTC);
+        String expected = "2000-02-29 23:01:02.0000003";
+        
+        char[] chars = new char[TimeFormatter.LENGTH + 2];
+        Assert.assertEquals(TimeFormatter.LENGTH + 1, f.format(time, chars, 1));
+        Assert.assertEquals(expected, new String(chars, 1, TimeFormatter.LENGTH));
+        
+        byte[] bytes = new byte[TimeFormatter.LENGTH + 2];
+        Assert.assertEquals(TimeFormatter.LENGTH + 2, f.format(time, bytes, 2));
+        Assert.assertEquals(expected, new String(bytes, 2, TimeFormatter.LENGTH, "US-ASCII"));
+        
+        StringBuilder b = new StringBuilder("t=");
+        Assert.assertEquals("t=" + expected, f.format(time, b).toString());
+    }
+    
+    @Test
+    public void testRoundTrip() {
+        String[] zones = {"UTC", "Europe/Stockholm", "America/New_York", "Australia/Lord_Howe"};
+        Random random = new Random(1);
+        long range = 100L * 365 * 24 * 3600 * TimeResolver.UNITS_PER_SECOND;
+        
+        for (String zoneName : zones) {
+            TimeZone zone = TimeZone.getTimeZone(zoneName);
+            TimeFormatter f = new TimeFormatter(zone);
+            
+            for (int i = 0; i < 10000; i++) {
+                long time = (random.nextLong() % range) + range / 2;
+                
+                // A few times close to each other, tests the day cache.
+                for (int j = 0; j < 3; j++) {
+                    time += random.nextInt(1000) * 1000000L;
+                    String s = f.format(time);
+                    long back = TimeResolver.resolveAbsolute(zone, s);
+                    
+                    // Ambiguous local times (when clocks are turned back) may resolve to 
+                    // the other instant.
+                    
+                    if (back != time) {
+                        Assert.assertEquals(s, s, f.format(back));
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testBeforeGregorianCutover() {
+        String s = "1500-06-01 12:00:00.0000000";
+        long time = TimeResolver.resolveAbsolute(TimeResolver.UTC, s);
+        Assert.assertEquals(s, new TimeFormatter(TimeResolver.UTC).format(time));
+    }
+}
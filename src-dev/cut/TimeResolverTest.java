@@ -221,6 +221,217 @@ public class TimeResolverTest {
         Assert.assertEquals(1L, units);
     }
     
+    @Test
+    public void testTimeZoneWithDaylightSaving() {
+        // Every 30 minutes during a year, including the non-existing and the ambiguous
+        // local times at the daylight saving transitions.
+        
+        TimeZone zone = TimeZone.getTimeZone("Europe/Stockholm");
+        
+        for (int month = 1; month <= 12; month++) {
+            for (int day = 1; day <= 31; day++) {
+                for (int minutes = 0; minutes < 24 * 60; minutes += 30) {
+                    int hour = minutes / 60;
+                    int min = minutes % 60;
+                    String ts = String.format(Locale.US, "2014-%02d-%02d %02d:%02d:00.5", month, day, hour, min);
+                    long millis = getMillisSinceEpoch(zone, 2014, month, day, hour, min, 0, 500);
+                    Assert.assertEquals(ts, millis * UNITS_PER_MILLISECOND, TimeResolver.resolveAbsolute(zone, ts));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void testBeforeGregorianCutover() {
+        // GregorianCalendar uses the Julian calendar before 1582-10-15.
+        
+        long millis = getMillisSinceEpoch(UTC, 1500, 6, 1, 12, 0, 0, 0);
+        Assert.assertEquals(millis * UNITS_PER_MILLISECOND, TimeResolver.resolveAbsolute(UTC, "1500-06-01 12:00"));
+    }
+    
+    @Test
+    public void testBulk() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Stockholm");
+        String[] strings = new String[] {
+                "2014-03-30 01:59:59.1234567",
+                "2014-03-30 02:30:00.5",
+                "2014-03-30 03:00",
+                "2014-03-31",
+                "bad",
+                "2014-03-31T23:59:59",
+                null,
+                "2014-04"};
+        
+        long[] result = new long[strings.length];
+        long[] errors = new long[1];
+        Assert.assertEquals(2, TimeResolver.resolveAbsolute(zone, strings, result, errors));
+        Assert.assertEquals((1L << 4) | (1L << 6), errors[0]);
+        
+        for (int i = 0; i < strings.length; i++) {
+            if (i != 4 && i != 6) {
+                Assert.assertEquals(strings[i], TimeResolver.resolveAbsolute(zone, strings[i]), result[i]);
+            }
+        }
+    }
+    
+    @Test
+    public void testBulkBytes() throws Exception {
+        byte[] data = "x,2013-08-19 14:29:10.1234567,2013-08-19 14:29:11.5,2013-08-1x".getBytes("US-ASCII");
+        int[] offsets = new int[] {2, 30, 52};
+        int[] lengths = new int[] {27, 21, 10};
+        long[] result = new long[3];
+        long[] errors = new long[1];
+        
+        Assert.assertEquals(1, TimeResolver.resolveAbsolute(UTC, data, offsets, lengths, 3, result, errors));
+        Assert.assertEquals(1L << 2, errors[0]);
+        Assert.assertEquals(TimeResolver.resolveAbsolute(UTC, "2013-08-19 14:29:10.1234567"), result[0]);
+        Assert.assertEquals(TimeResolver.resolveAbsolute(UTC, "2013-08-19 14:29:11.5"), result[1]);
+    }
+    
+    @Test
+    public void testBulkBadRows() {
+        // One string per kind of error; each throws when resolved alone.
+        String[] strings = new String[] {
+                "2014-0",
+                "2014/03-30",
+                "2x14-03-30",
+                "2014-03/30",
+                "2014-03-3x",
+                "2014-03-30 01:0",
+                "2014-03-30_01:00",
+                "2014-03-30 x1:00",
+                "2014-03-30 01-00",
+                "2014-03-30 01:x0",
+                "2014-03-30 01:00:",
+                "2014-03-30 01:00-00",
+                "2014-03-30 01:00:xx",
+                "2014-03-30 01:00:00,5",
+                "2014-03-30 01:00:00.5x"};
+        
+        for (String s : strings) {
+            try {
+                TimeResolver.resolveAbsolute(UTC, s);
+                Assert.fail(s);
+            } catch (TimeResolver.BadFormatException e) {
+                // expected
+            }
+        }
+        
+        long[] result = new long[strings.length];
+        long[] errors = new long[1];
+        Assert.assertEquals(strings.length, TimeResolver.resolveAbsolute(UTC, strings, result, errors));
+        Assert.assertEquals((1L << strings.length) - 1, errors[0]);
+    }
+    
+    @Test
+    public void testBulkSharedDates() throws Exception {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Stockholm");
+        String[] strings = new String[] {
+                "2014-03-30 01:00",
+                "2014-03-30 03:30:00.5",
+                "2014-03-30 1x:00",
+                "2014-03-30T23:00",
+                "2014-03-30",
+                "2014-03-31 00:00",
+                "2014-03-3x 00:00",
+                "2014-03-31 00:01"};
+        
+        long[] result = new long[strings.length];
+        long[] errors = new long[1];
+        Assert.assertEquals(2, TimeResolver.resolveAbsolute(zone, strings, result, errors));
+        Assert.assertEquals((1L << 2) | (1L << 6), errors[0]);
+        
+        StringBuilder b = new StringBuilder();
+        int[] offsets = new int[strings.length];
+        int[] lengths = new int[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            offsets[i] = b.length();
+            lengths[i] = strings[i].length();
+            b.append(strings[i]).append(',');
+        }
+        long[] result2 = new long[strings.length];
+        long[] errors2 = new long[1];
+        TimeResolver.resolveAbsolute(zone, b.toString().getBytes("US-ASCII"), 
+                offsets, lengths, strings.length, result2, errors2);
+        Assert.assertEquals(errors[0], errors2[0]);
+        
+        for (int i = 0; i < strings.length; i++) {
+            if (i != 2 && i != 6) {
+                Assert.assertEquals(strings[i], TimeResolver.resolveAbsolute(zone, strings[i]), result[i]);
+                Assert.assertEquals(strings[i], result[i], result2[i]);
+            }
+        }
+    }
+    
+    @Test
+    public void testCharSequenceRange() {
+        StringBuilder b = new StringBuilder("time=2013-08-19 14:29:10.1234567;");
+        long expected = TimeResolver.resolveAbsolute(UTC, "2013-08-19 14:29:10.1234567");
+        Assert.assertEquals(expected, TimeResolver.resolveAbsolute(UTC, b, 5, b.length() - 1));
+        Assert.assertEquals(expected, TimeResolver.resolve(UTC, 0, b, 5, b.length() - 1));
+        
+        b = new StringBuilder("x -1 days 13:00:01");
+        long t1 = TimeResolver.resolve(UTC, 0, "2010-03-14 03:01:10");
+        long t2 = TimeResolver.resolve(UTC, 0, "2010-03-13 13:00:01");
+        Assert.assertEquals(t2, TimeResolver.resolve(UTC, t1, b, 2, b.length()));
+    }
+    
+    @Test
+    public void testAsciiBytes() throws Exception {
+        byte[] ascii = "..2013-08-19T14:29:10.1234567..now..-1.5 s..".getBytes("US-ASCII");
+        long expected = TimeResolver.resolveAbsolute(UTC, "2013-08-19 14:29:10.1234567");
+        Assert.assertEquals(expected, TimeResolver.resolveAbsolute(UTC, ascii, 2, 27));
+        Assert.assertEquals(expected, TimeResolver.resolve(UTC, 0, ascii, 2, 27));
+        Assert.assertEquals(expected, TimeResolver.resolve(UTC, expected, ascii, 31, 3));
+        Assert.assertEquals(expected - 15 * UNITS_PER_SECOND / 10, TimeResolver.resolve(UTC, expected, ascii, 36, 6));
+    }
+    
+    @Test(expected = TimeResolver.BadFormatException.class)
+    public void testAsciiBytesBad() throws Exception {
+        byte[] ascii = "2013-08-19 14:29:1x".getBytes("US-ASCII");
+        TimeResolver.resolveAbsolute(UTC, ascii, 0, ascii.length);
+    }
+    
+    @Test
+    public void testFractionRounding() {
+        long t0 = TimeResolver.resolveAbsolute(UTC, "2000-01-01 00:00:00");
+        Assert.assertEquals(t0 + 9999999, TimeResolver.resolveAbsolute(UTC, "2000-01-01 00:00:00.9999999"));
+        Assert.assertEquals(t0 + 9999999, TimeResolver.resolveAbsolute(UTC, "2000-01-01 00:00:00.99999994"));
+        Assert.assertEquals(t0 + UNITS_PER_SECOND, TimeResolver.resolveAbsolute(UTC, "2000-01-01 00:00:00.99999995"));
+        Assert.assertEquals(t0 + 5000000, TimeResolver.resolveAbsolute(UTC, "2000-01-01 00:00:00.5"));
+    }
+    
+    @Test
+    public void testCompile() {
+        String[] strings = new String[] {
+                "now", 
+                "2013-08-19 14:29:10.1234567", 
+                "2013-08", 
+                "14:29", 
+                "-30 m", 
+                "-2 days 14:29", 
+                "+1.5 h"};
+        TimeZone zone = TimeZone.getTimeZone("Europe/Stockholm");
+        long current = TimeResolver.resolveAbsolute(UTC, "2014-03-31 01:30");
+        
+        for (String s : strings) {
+            TimeResolver.Expression e = TimeResolver.compile(s);
+            Assert.assertSame(e, TimeResolver.compile(s));
+            Assert.assertEquals(s, TimeResolver.resolve(zone, current, s), e.evaluate(zone, current));
+            Assert.assertEquals(s, TimeResolver.resolve(UTC, current + 7, s), e.evaluate(UTC, current + 7));
+        }
+    }
+    
+    @Test(expected = TimeResolver.BadFormatException.class)
+    public void testCompileBad() {
+        TimeResolver.compile("-30 x");
+    }
+    
+    @Test(expected = TimeResolver.BadFormatException.class)
+    public void testCompileNegativeTime() {
+        TimeResolver.compile("-30 m").evaluate(UTC, 0);
+    }
+    
     /**
      * Returns milliseconds since Epoch for a certain UTC date/time.
      * 
@@ -1,5 +1,11 @@
 package cut;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -21,4 +27,43 @@ public class TimeUtilTest {
         String expected = "2017-07-14 02:40:02.003";
         Assert.assertEquals(expected, s);
     }
+    
+    @Test
+    public void testSameAsSimpleDateFormat() {
+        SimpleDateFormat f1 = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        f1.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat f2 = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US);
+        f2.setTimeZone(TimeZone.getTimeZone("UTC"));
+        
+        Random random = new Random(1);
+        long[] times = new long[10000];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = random.nextLong() % (500L * 365 * 24 * 3600 * 1000);
+        }
+        times[0] = -1;
+        times[1] = 0;
+        times[2] = -12219292800000L - 1;  // just before the Gregorian cutover
+        
+        for (long t : times) {
+            Date date = new Date(t);
+            Assert.assertEquals(f1.format(date), TimeUtil.toUtcTimeString(t));
+            Assert.assertEquals(f2.format(date), TimeUtil.toUtcTimeStringMinutes(t));
+        }
+    }
+    
+    @Test
+    public void testAppendAndBytes() throws Exception {
+        long t = 1500000002003L;
+        Assert.assertEquals("t=2017-07-14 02:40:02.003", 
+                TimeUtil.appendUtcTimeString(t, new StringBuilder("t=")).toString());
+        Assert.assertEquals("2017-07-14 02:40", 
+                TimeUtil.appendUtcTimeStringMinutes(t, new StringBuilder()).toString());
+        
+        byte[] bytes = new byte[24];
+        Assert.assertEquals(24, TimeUtil.toUtcTimeBytes(t, bytes, 1));
+        Assert.assertEquals("2017-07-14 02:40:02.003", new String(bytes, 1, 23, "US-ASCII"));
+        
+        Assert.assertEquals(16, TimeUtil.toUtcTimeBytesMinutes(t, bytes, 0));
+        Assert.assertEquals("2017-07-14 02:40", new String(bytes, 0, 16, "US-ASCII"));
+    }
 }
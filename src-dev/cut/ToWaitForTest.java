@@ -1,5 +1,7 @@
 package cut;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -73,6 +75,205 @@ public class ToWaitForTest {
         Assert.assertEquals(false, thread.isAlive());
     }
     
+    @Test
+    public void testStrategies() throws InterruptedException {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            for (int i = 0; i < 100; i++) {
+                final ToWaitFor t1 = new ToWaitFor(strategy);
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        t1.reportHappened();
+                    }
+                });
+                thread.start();
+                Assert.assertTrue(strategy.toString(), t1.waitForItNanos(10L * 1000 * 1000 * 1000));
+                thread.join();
+            }
+        }
+    }
+    
+    @Test
+    public void testTimeout() {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            ToWaitFor t1 = new ToWaitFor(strategy);
+            long start = System.nanoTime();
+            Assert.assertFalse(t1.waitForItNanos(2 * 1000 * 1000));
+            Assert.assertTrue(System.nanoTime() - start >= 2 * 1000 * 1000);
+            Assert.assertFalse(t1.waitForItNanos(0));
+            t1.reportHappened();
+            t1.reportHappened();
+            Assert.assertTrue(t1.waitForItNanos(0));
+        }
+    }
+    
+    @Test
+    public void testManyWaiters() throws InterruptedException {
+        final ToWaitFor t1 = new ToWaitFor();
+        final boolean[] results = new boolean[20];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = t1.waitForIt(10000);
+                }
+            });
+            threads[i].start();
+        }
+        
+        sleep(20);
+        t1.reportHappened();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            Assert.assertTrue(results[i]);
+        }
+    }
+    
+    @Test
+    public void testCallbacks() {
+        final ToWaitFor t1 = new ToWaitFor();
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            final int index = i;
+            t1.onHappened(new Runnable() {
+                public void run() {
+                    b.append(index);
+                }
+            });
+        }
+        
+        java.util.concurrent.CompletableFuture<Void> future = t1.toFuture();
+        Assert.assertEquals("", b.toString());
+        Assert.assertFalse(future.isDone());
+        
+        t1.reportHappened();
+        Assert.assertEquals("012", b.toString());
+        Assert.assertTrue(future.isDone());
+        
+        // Already happened, run inline.
+        t1.onHappened(new Runnable() {
+            public void run() {
+                b.append('x');
+            }
+        });
+        Assert.assertEquals("012x", b.toString());
+        Assert.assertTrue(t1.toFuture().isDone());
+    }
+    
+    @Test
+    public void testCallbackExecutor() throws Exception {
+        java.util.concurrent.ExecutorService executor =
+                java.util.concurrent.Executors.newSingleThreadExecutor();
+        try {
+            final ToWaitFor t1 = new ToWaitFor();
+            final ToWaitFor done = new ToWaitFor();
+            final Thread[] callbackThread = new Thread[1];
+            t1.onHappened(new Runnable() {
+                public void run() {
+                    callbackThread[0] = Thread.currentThread();
+                    done.reportHappened();
+                }
+            }, executor);
+            
+            t1.reportHappened();
+            Assert.assertTrue(done.waitForIt(10000));
+            Assert.assertNotSame(Thread.currentThread(), callbackThread[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testCallbackException() {
+        ToWaitFor t1 = new ToWaitFor();
+        final boolean[] ran = new boolean[1];
+        t1.onHappened(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+        t1.onHappened(new Runnable() {
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        
+        try {
+            t1.reportHappened();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertTrue(ran[0]);
+        Assert.assertTrue(t1.hasHappened());
+    }
+    
+    @Test
+    public void testCallbackErrorDoesNotStopWakeups() throws InterruptedException {
+        final ToWaitFor t1 = new ToWaitFor();
+        t1.onHappened(new Runnable() {
+            public void run() {
+                throw new AssertionError("test");
+            }
+        });
+        
+        final boolean[] happened = new boolean[1];
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                happened[0] = t1.waitForItNanos(Long.MAX_VALUE);
+            }
+        });
+        waiter.start();
+        while (t1.nodeCount() < 2) {
+            Thread.sleep(1);
+        }
+        
+        try {
+            t1.reportHappened();
+            Assert.fail();
+        } catch (AssertionError e) {
+            Assert.assertEquals("test", e.getMessage());
+        }
+        
+        waiter.join(10000);
+        Assert.assertFalse(waiter.isAlive());
+        Assert.assertTrue(happened[0]);
+    }
+    
+    @Test
+    public void testRemoveOnHappened() {
+        ToWaitFor t1 = new ToWaitFor();
+        final int[] runs = new int[1];
+        Runnable callback = new Runnable() {
+            public void run() {
+                runs[0]++;
+            }
+        };
+        
+        t1.onHappened(callback);
+        Assert.assertTrue(t1.removeOnHappened(callback));
+        Assert.assertFalse(t1.removeOnHappened(callback));
+        Assert.assertEquals(0, t1.nodeCount());
+        
+        t1.onHappened(callback);
+        t1.reportHappened();
+        Assert.assertEquals(1, runs[0]);
+        Assert.assertFalse(t1.removeOnHappened(callback));
+    }
+    
+    @Test
+    public void testAwaitInterrupted() {
+        ToWaitFor t1 = new ToWaitFor();
+        Thread.currentThread().interrupt();
+        try {
+            t1.await();
+            Assert.fail();
+        } catch (InterruptedException e) {
+            // expected
+        }
+        Assert.assertFalse(Thread.currentThread().isInterrupted());
+    }
+    
     private void sleep(long millis) {
         try {
             Thread.sleep(millis);
@@ -80,4 +281,87 @@ public class ToWaitForTest {
             // empty;
         }
     }
+
+    @Test
+    public void testTimedOutWaitersUnlinked() throws InterruptedException {
+        final ToWaitFor t = new ToWaitFor();
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertFalse(t.waitForItNanos(1));
+        }
+        Assert.assertEquals(0, t.nodeCount());
+        
+        // Pollers give up while one waiter stays parked.
+        
+        final boolean[] happened = new boolean[1];
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                happened[0] = t.waitForIt(10000);
+            }
+        });
+        waiter.start();
+        
+        Thread[] pollers = new Thread[4];
+        for (int p = 0; p < pollers.length; p++) {
+            pollers[p] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        t.waitForItNanos(1000);
+                    }
+                }
+            });
+            pollers[p].start();
+        }
+        for (Thread poller : pollers) {
+            poller.join();
+        }
+        
+        // Nodes that survived races are unlinked by the next timeout.
+        t.waitForItNanos(1);
+        Assert.assertEquals(1, t.nodeCount());
+        t.reportHappened();
+        waiter.join();
+        Assert.assertTrue(happened[0]);
+    }
+    static class StressState {
+        final ToWaitFor t = new ToWaitFor();
+        final AtomicInteger callbacks = new AtomicInteger();
+        boolean before;
+        boolean waited;
+    }
+
+    @Test
+    public void testStress() {
+        // Actor 0 reports, actor 1 checks, registers a callback and waits.
+        StressRunner.check(new StressRunner.Test<StressState>() {
+            public StressState newState() {
+                return new StressState();
+            }
+
+            public void actor(int actor, final StressState s) {
+                if (actor == 0) {
+                    s.t.reportHappened();
+                } else {
+                    s.before = s.t.hasHappened();
+                    s.t.onHappened(new Runnable() {
+                        public void run() {
+                            s.callbacks.incrementAndGet();
+                        }
+                    });
+                    s.waited = s.t.waitForItNanos(Long.MAX_VALUE);
+                }
+            }
+
+            public String arbiter(StressState s) {
+                return s.before + "," + s.waited + "," + s.callbacks.get();
+            }
+        }, 2, "false,true,1", "true,true,1");
+    }
+
+    @Test
+    public void testHandOffs() {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            StressRunner.handOffs("ToWaitFor " + strategy, StressRunner.toWaitForHandOff(strategy), 
+                    1, 50);
+        }
+    }
 }
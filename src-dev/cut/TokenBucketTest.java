@@ -0,0 +1,112 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+    private static final long E6 = 1000L * 1000;
+    private static final long E9 = 1000L * 1000 * 1000;
+
+    @Test
+    public void testBurstAndRefill() {
+        TokenBucket b = new TokenBucket(1000, 10, 0);
+        Assert.assertEquals(10, b.getAvailableTokens(0));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(b.tryAcquire(0));
+        }
+        Assert.assertFalse(b.tryAcquire(0));
+        Assert.assertEquals(0, b.getAvailableTokens(0));
+
+        // One token per millisecond.
+        Assert.assertFalse(b.tryAcquire(E6 - 1));
+        Assert.assertTrue(b.tryAcquire(E6));
+        Assert.assertFalse(b.tryAcquire(E6));
+        Assert.assertEquals(10, b.getAvailableTokens(E9));
+        Assert.assertTrue(b.tryAcquire(E9, 10));
+        Assert.assertFalse(b.tryAcquire(E9, 1));
+    }
+
+    @Test
+    public void testRate() {
+        TokenBucket b = new TokenBucket(200000, 100, 0);
+        int admitted = 0;
+        for (long t = 0; t < E9; t += 1000) {    // 1 MHz offered
+            if (b.tryAcquire(t)) {
+                admitted++;
+            }
+        }
+        Assert.assertEquals(200100, admitted, 2);
+    }
+
+    @Test
+    public void testReserve() {
+        TokenBucket b = new TokenBucket(1000, 1, 0);
+        Assert.assertEquals(0, b.reserve(0, 1, 0));
+        Assert.assertEquals(E6, b.reserve(0, 1, 5 * E6));
+        Assert.assertEquals(2 * E6, b.reserve(0, 1, 5 * E6));
+        Assert.assertEquals(-1, b.reserve(0, 4, 5 * E6));
+        Assert.assertEquals(5 * E6, b.reserve(0, 3, 5 * E6));
+    }
+
+    @Test
+    public void testSetRate() {
+        TokenBucket b = new TokenBucket(1000, 1, 0);
+        Assert.assertTrue(b.tryAcquire(0));
+        Assert.assertFalse(b.tryAcquire(0));
+        b.setRate(10);
+        Assert.assertTrue(b.tryAcquire(E6));
+        Assert.assertFalse(b.tryAcquire(100 * E6));
+        Assert.assertTrue(b.tryAcquire(101 * E6));
+        Assert.assertEquals(10.0, b.getRate(), 0.0);
+    }
+
+    @Test
+    public void testThreads() throws InterruptedException {
+        final TokenBucket b = new TokenBucket(1000, 500, 0);
+        final java.util.concurrent.atomic.AtomicInteger admitted =
+                new java.util.concurrent.atomic.AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        if (b.tryAcquire(i * 10000L)) {    // 1 s
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Max 500 + 1000 tokens during one second.
+        Assert.assertTrue("admitted: " + admitted, admitted.get() <= 1500);
+        Assert.assertTrue("admitted: " + admitted, admitted.get() >= 500);
+    }
+
+    static class StressState {
+        final TokenBucket bucket = new TokenBucket(1.0, 1, 0);
+        final boolean[] acquired = new boolean[2];
+    }
+
+    @Test
+    public void testStress() {
+        // Two threads race for the only token; exactly one gets it.
+        StressRunner.check(new StressRunner.Test<StressState>() {
+            public StressState newState() {
+                return new StressState();
+            }
+
+            public void actor(int actor, StressState s) {
+                s.acquired[actor] = s.bucket.tryAcquire(E6);
+            }
+
+            public String arbiter(StressState s) {
+                return s.acquired[0] + "," + s.acquired[1];
+            }
+        }, 2, "true,false", "false,true");
+    }
+}
@@ -0,0 +1,61 @@
+package cut;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Xoroshiro128PlusPlusTest {
+
+    @Test
+    public void testKnownValues() {
+        // Computed with the reference C implementation.
+        Xoroshiro128PlusPlus r = new Xoroshiro128PlusPlus(1, 2);
+        Assert.assertEquals(0x60001L, r.nextLong());
+        Assert.assertEquals(0x260c000660007L, r.nextLong());
+        Assert.assertEquals(0x180acc04718606d3L, r.nextLong());
+        Assert.assertEquals(0x9e226d35036fc4c7L, r.nextLong());
+    }
+
+    @Test
+    public void testBulk() {
+        Xoroshiro128PlusPlus r1 = new Xoroshiro128PlusPlus(42);
+        Xoroshiro128PlusPlus r2 = new Xoroshiro128PlusPlus(42);
+        long[] longs = new long[100];
+        r1.nextLongs(longs, 0, 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(r2.nextLong(), longs[i]);
+        }
+
+        byte[] bytes = new byte[20];
+        r1.nextBytes(bytes, 2, 17);
+        Assert.assertEquals(r2.nextLong(), Bytes.bytesToLongLE(bytes, 2));
+        Assert.assertEquals(r2.nextLong(), Bytes.bytesToLongLE(bytes, 10));
+        Assert.assertEquals((byte) r2.nextLong(), bytes[18]);
+        Assert.assertEquals(0, bytes[19]);
+    }
+
+    @Test
+    public void testZeroState() {
+        Xoroshiro128PlusPlus r = new Xoroshiro128PlusPlus(0, 0);
+        Assert.assertTrue(r.nextLong() != 0 || r.nextLong() != 0);
+    }
+
+    @Test
+    public void testCurrentAndSplit() throws InterruptedException {
+        final Xoroshiro128PlusPlus[] other = new Xoroshiro128PlusPlus[1];
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                other[0] = Xoroshiro128PlusPlus.current();
+            }
+        });
+        t.start();
+        t.join();
+
+        Xoroshiro128PlusPlus r = Xoroshiro128PlusPlus.current();
+        Assert.assertSame(r, Xoroshiro128PlusPlus.current());
+        Assert.assertNotSame(r, other[0]);
+        Assert.assertTrue(r.nextLong() != other[0].nextLong());
+
+        Xoroshiro128PlusPlus child = r.split();
+        Assert.assertTrue(child.nextLong() != r.nextLong());
+    }
+}
@@ -0,0 +1,108 @@
+package cut;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.zip.CheckedOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class XxHash64Test {
+    
+    @Test
+    public void testKnownValues() throws IOException {
+        Assert.assertEquals(0xef46db3751d8e999L, XxHash64.hash(new byte[0], 0, 0));
+        
+        byte[] abc = "abc".getBytes("UTF-8");
+        Assert.assertEquals(0x44bc2cf5ad770999L, XxHash64.hash(abc, 0, abc.length));
+        
+        byte[] s = "Nobody inspects the spammish repetition".getBytes("UTF-8");
+        Assert.assertEquals(0xfbcea83c8a378bf1L, XxHash64.hash(s, 0, s.length));
+    }
+    
+    @Test
+    public void testStreamingEqualsOneShot() {
+        Random random = new Random(1);
+        
+        for (int length = 0; length < 200; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            long seed = random.nextLong();
+            long expected = XxHash64.hash(bytes, 0, length, seed);
+            
+            XxHash64 x1 = new XxHash64(seed);
+            for (int i = 0; i < length; i++) {
+                x1.update(bytes[i]);
+            }
+            Assert.assertEquals(expected, x1.getValue());
+            
+            XxHash64 x2 = new XxHash64(seed);
+            int split = length / 3;
+            x2.update(bytes, 0, split);
+            x2.update(bytes, split, length - split);
+            Assert.assertEquals(expected, x2.getValue());
+            
+            x2.reset();
+            x2.update(bytes);
+            Assert.assertEquals(expected, x2.getValue());
+        }
+    }
+    
+    @Test
+    public void testByteBuffer() {
+        byte[] bytes = new byte[1000];
+        new Random(2).nextBytes(bytes);
+        long expected = XxHash64.hash(bytes, 10, 990, 7);
+        
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(10);
+        Assert.assertEquals(expected, XxHash64.hash(heap, 7));
+        Assert.assertEquals(10, heap.position());
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(990);
+        direct.put(bytes, 10, 990);
+        direct.flip();
+        Assert.assertEquals(expected, XxHash64.hash(direct, 7));
+    }
+    
+    @Test
+    public void testDirectByteBuffer() {
+        // Both byte orders, split at every position.
+        byte[] bytes = new byte[100];
+        new Random(4).nextBytes(bytes);
+        long expected = XxHash64.hash(bytes, 0, bytes.length, 7);
+        
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        direct.position(3);
+        direct.put(bytes);
+        
+        for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            direct.order(order);
+            for (int split = 0; split <= bytes.length; split++) {
+                XxHash64 x = new XxHash64(7);
+                x.update(bytes, 0, split % 5);
+                direct.limit(3 + split).position(3 + split % 5);
+                x.update(direct);
+                direct.limit(3 + bytes.length);
+                x.update(direct);
+                Assert.assertEquals(expected, x.getValue());
+                Assert.assertEquals(3 + bytes.length, direct.position());
+            }
+        }
+    }
+    
+    @Test
+    public void testCheckedStream() throws IOException {
+        byte[] bytes = new byte[10*1000];
+        new Random(3).nextBytes(bytes);
+        
+        XxHash64 hash = new XxHash64();
+        Io.copy(new ByteArrayInputStream(bytes), 
+                new CheckedOutputStream(new ByteArrayOutputStream(), hash));
+        Assert.assertEquals(XxHash64.hash(bytes, 0, bytes.length), hash.getValue());
+    }
+}
@@ -0,0 +1,151 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An adaptive rate limiter. Admitted events are measured with a ConcurrentFrequencySensor
+ * (the exponential-decay model of FrequencySensor) and the measured frequency is compared
+ * to a target frequency at a fixed interval. The rate of an internal TokenBucket is
+ * adjusted with AIMD: additive increase while the measured frequency is at or below the
+ * target, multiplicative decrease when it is above. The rate stays within
+ * [minRate, maxRate].
+ *
+ * <p>Excess work is either shed, tryAcquire(), or delayed, acquireDelay(). Like
+ * FrequencySensor, the methods take a nanosecond time argument for deterministic testing;
+ * use System.nanoTime() otherwise. No locks are used.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class AdaptiveLimiter {
+    private final double target;
+    private final double minRate;
+    private final double maxRate;
+    private final double increase;
+    private final double decreaseFactor;
+    private final long adjustIntervalNanos;
+    private final TokenBucket bucket;
+    private final ConcurrentFrequencySensor sensor;
+    private final AtomicLong nextAdjustTime;
+
+    /**
+     * Creates a limiter with default parameters: the rate starts at the target and
+     * stays within [target / 10, 2 * target], it is adjusted every 100 ms by adding target / 20
+     * or by multiplying with 0.7. The sensor half-life is 1 s. The bucket capacity
+     * is 10 ms of events at the target rate, at least 1.
+     *
+     * @param targetPerSecond  Target frequency of admitted events.
+     * @param startTimeInNanos  Current time in nano seconds.
+     */
+    public AdaptiveLimiter(double targetPerSecond, long startTimeInNanos) {
+        this(targetPerSecond, targetPerSecond / 10, 2 * targetPerSecond,
+                targetPerSecond / 20, 0.7, 100 * 1000 * 1000L, 1.0,
+                Math.max(1, (long) (targetPerSecond / 100)), startTimeInNanos);
+    }
+
+    /**
+     * Creates a limiter.
+     *
+     * @param targetPerSecond  Target frequency of admitted events, &gt; 0.
+     * @param minRate  Min rate, events per second, &gt; 0.
+     * @param maxRate  Max rate, events per second, &gt;= minRate.
+     * @param increase  Rate added per adjustment, &gt;= 0.
+     * @param decreaseFactor  Rate multiplier when above target, in (0, 1).
+     * @param adjustIntervalNanos  Time between adjustments, &gt; 0.
+     * @param halfLifeInSeconds  Half-life of the frequency sensor.
+     * @param capacity  Capacity (max burst) of the token bucket.
+     * @param startTimeInNanos  Current time in nano seconds.
+     */
+    public AdaptiveLimiter(double targetPerSecond, double minRate, double maxRate,
+            double increase, double decreaseFactor, long adjustIntervalNanos,
+            double halfLifeInSeconds, long capacity, long startTimeInNanos) {
+        if (!(targetPerSecond > 0.0) || !(minRate > 0.0) || !(maxRate >= minRate)) {
+            throw new IllegalArgumentException("bad target, minRate or maxRate");
+        }
+        if (!(increase >= 0.0) || !(decreaseFactor > 0.0 && decreaseFactor < 1.0)) {
+            throw new IllegalArgumentException("bad increase or decreaseFactor");
+        }
+        if (adjustIntervalNanos <= 0) {
+            throw new IllegalArgumentException("adjustIntervalNanos <= 0 not allowed");
+        }
+
+        this.target = targetPerSecond;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.increase = increase;
+        this.decreaseFactor = decreaseFactor;
+        this.adjustIntervalNanos = adjustIntervalNanos;
+        this.bucket = new TokenBucket(Math.min(maxRate, Math.max(minRate, targetPerSecond)),
+                capacity, startTimeInNanos);
+        this.sensor = new ConcurrentFrequencySensor(halfLifeInSeconds, startTimeInNanos);
+        this.nextAdjustTime = new AtomicLong(startTimeInNanos + adjustIntervalNanos);
+    }
+
+    /**
+     * Admits an event if the current rate allows it, sheds it otherwise.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @return True if the event is admitted.
+     */
+    public boolean tryAcquire(long nanoTime) {
+        adjust(nanoTime);
+        if (bucket.tryAcquire(nanoTime)) {
+            sensor.tick(nanoTime);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Admits an event after a delay. The caller should wait for the returned time
+     * before going ahead.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param maxDelayNanos  Max delay; if a longer delay is needed, the event is shed.
+     * @return The delay in nanoseconds, or -1 if the event is shed.
+     */
+    public long acquireDelay(long nanoTime, long maxDelayNanos) {
+        adjust(nanoTime);
+        long delay = bucket.reserve(nanoTime, 1, maxDelayNanos);
+        if (delay >= 0) {
+            sensor.tick(nanoTime);
+        }
+        return delay;
+    }
+
+    /**
+     * Returns the current rate limit, events per second.
+     */
+    public double getRate() {
+        return bucket.getRate();
+    }
+
+    /**
+     * Returns the measured frequency of admitted events.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public double getFrequency(long nanoTime) {
+        return sensor.getFrequency(nanoTime);
+    }
+
+    /**
+     * Adjusts the rate if an adjustment is due. Only one thread does each adjustment.
+     */
+    private void adjust(long nanoTime) {
+        long next = nextAdjustTime.get();
+        if (nanoTime - next < 0) {
+            return;
+        }
+        if (!nextAdjustTime.compareAndSet(next, nanoTime + adjustIntervalNanos)) {
+            return;
+        }
+
+        double rate = bucket.getRate();
+        if (sensor.getFrequency(nanoTime) > target) {
+            rate = Math.max(minRate, rate * decreaseFactor);
+        } else {
+            rate = Math.min(maxRate, rate + increase);
+        }
+        bucket.setRate(rate);
+    }
+}
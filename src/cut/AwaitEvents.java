@@ -0,0 +1,155 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Waits for the first, all, or k of a number of events (ToWaitFor or EventToWaitFor
+ * instances), for example for a quorum of replicated writes. A callback is registered
+ * with each event (see ToWaitFor.onHappened()); the callback that completes the wait
+ * wakes the waiting thread, so the waiting thread parks at most once. The timeout is
+ * for the whole wait.
+ *
+ * <p>Like ToWaitFor.waitForIt(), the methods return immediately if the calling thread
+ * is interrupted. When the wait ends, the callbacks are removed from the events that
+ * have not happened (ToWaitFor.removeOnHappened()), so waiting in a loop with a timeout
+ * on long-lived events does not leak memory.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class AwaitEvents {
+    private AwaitEvents() {
+    }
+
+    /**
+     * Counts happened events, wakes the waiter at the quorum.
+     */
+    private static final class Quorum {
+        final AtomicInteger remaining;
+        final AtomicInteger first = new AtomicInteger(-1);
+        final ToWaitFor done = new ToWaitFor();
+        final Runnable[] callbacks;
+
+        Quorum(int k, int n) {
+            remaining = new AtomicInteger(k);
+            callbacks = new Runnable[n];
+        }
+
+        void register(ToWaitFor event, final int index) {
+            callbacks[index] = new Runnable() {
+                public void run() {
+                    first.compareAndSet(-1, index);
+                    if (remaining.decrementAndGet() == 0) {
+                        done.reportHappened();
+                    }
+                }
+            };
+            event.onHappened(callbacks[index]);
+        }
+
+        void unregister(ToWaitFor[] events) {
+            for (int i = 0; i < events.length; i++) {
+                if (callbacks[i] != null && !events[i].hasHappened()) {
+                    events[i].removeOnHappened(callbacks[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until any of the events has happened.
+     *
+     * @param nanos  Maximum time to wait in nanoseconds, Long.MAX_VALUE means no timeout.
+     * @return The index of the first event seen to happen, or -1 if this method returns
+     *      because of a timeout or because this thread was interrupted.
+     */
+    public static int awaitAny(long nanos, ToWaitFor... events) {
+        Quorum q = await(1, nanos, events);
+        return q == null ? -1 : q.first.get();
+    }
+
+    /**
+     * Like awaitAny(long, ToWaitFor...), for EventToWaitFor instances.
+     */
+    public static int awaitAny(long nanos, EventToWaitFor... events) {
+        return awaitAny(nanos, unwrap(events));
+    }
+
+    /**
+     * Waits until all events have happened.
+     *
+     * @param nanos  Maximum time to wait in nanoseconds, Long.MAX_VALUE means no timeout.
+     * @return true if all events have happened, false if this method returns because of a
+     *      timeout or because this thread was interrupted.
+     */
+    public static boolean awaitAll(long nanos, ToWaitFor... events) {
+        return await(events.length, nanos, events) != null;
+    }
+
+    /**
+     * Like awaitAll(long, ToWaitFor...), for EventToWaitFor instances.
+     */
+    public static boolean awaitAll(long nanos, EventToWaitFor... events) {
+        return awaitAll(nanos, unwrap(events));
+    }
+
+    /**
+     * Waits until at least k of the events have happened.
+     *
+     * @param k  The quorum, 0 - events.length.
+     * @param nanos  Maximum time to wait in nanoseconds, Long.MAX_VALUE means no timeout.
+     * @return true if k events have happened, false if this method returns because of a
+     *      timeout or because this thread was interrupted.
+     */
+    public static boolean awaitQuorum(int k, long nanos, ToWaitFor... events) {
+        return await(k, nanos, events) != null;
+    }
+
+    /**
+     * Like awaitQuorum(int, long, ToWaitFor...), for EventToWaitFor instances.
+     */
+    public static boolean awaitQuorum(int k, long nanos, EventToWaitFor... events) {
+        return awaitQuorum(k, nanos, unwrap(events));
+    }
+
+    /**
+     * Returns the Quorum if k events happened, otherwise null.
+     */
+    private static Quorum await(int k, long nanos, ToWaitFor[] events) {
+        if (k < 0 || k > events.length) {
+            throw new IllegalArgumentException("bad k: " + k);
+        }
+        if (Thread.interrupted()) {
+            return null;
+        }
+
+        Quorum q = new Quorum(k, events.length);
+        if (k == 0) {
+            return q;
+        }
+
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] == null) {
+                throw new IllegalArgumentException("events[" + i + "] == null not allowed");
+            }
+        }
+
+        for (int i = 0; i < events.length && !q.done.hasHappened(); i++) {
+            q.register(events[i], i);
+        }
+
+        boolean happened = q.done.waitForItNanos(nanos);
+        q.unregister(events);
+        return happened ? q : null;
+    }
+
+    private static ToWaitFor[] unwrap(EventToWaitFor[] events) {
+        ToWaitFor[] result = new ToWaitFor[events.length];
+        for (int i = 0; i < events.length; i++) {
+            if (events[i] == null) {
+                throw new IllegalArgumentException("events[" + i + "] == null not allowed");
+            }
+            result[i] = events[i].toWaitFor();
+        }
+        return result;
+    }
+}
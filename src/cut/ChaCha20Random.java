@@ -0,0 +1,242 @@
+package cut;
+
+/**
+ * A cryptographically secure pseudo-random number generator: the ChaCha20 stream
+ * cipher (20 rounds, 256-bit key, 64-bit block counter, 64-bit nonce) used as a
+ * key stream generator. For tokens, keys and other secrets. The key is
+ * taken from SeedGenerator unless given.
+ *
+ * <p>Instances are not thread-safe; use current() to get a generator for the current
+ * thread, or split() to get a generator for another task.</p>
+ */
+public class ChaCha20Random {
+    private static final ThreadLocal<ChaCha20Random> CURRENT = new ThreadLocal<ChaCha20Random>() {
+        protected ChaCha20Random initialValue() {
+            return new ChaCha20Random();
+        }
+    };
+
+    /** Input state: constants, key, counter, nonce. */
+    private final int[] state = new int[16];
+
+    /** Last key stream block. */
+    private final int[] block = new int[16];
+
+    /** Index of next unused word in block, 16 if none. */
+    private int index = 16;
+
+    /**
+     * Creates a generator keyed from SeedGenerator.getDefault().
+     */
+    public ChaCha20Random() {
+        this(SeedGenerator.getDefault().getSeed());
+    }
+
+    /**
+     * Creates a generator from a seed: the first 32 bytes are the key, the next
+     * 8 bytes, if present, the nonce.
+     *
+     * @param seed  At least 32 bytes.
+     */
+    public ChaCha20Random(byte[] seed) {
+        if (seed.length < 32) {
+            throw new IllegalArgumentException("seed.length < 32 not allowed");
+        }
+
+        int[] key = new int[8];
+        for (int i = 0; i < 8; i++) {
+            key[i] = Bytes.bytesToIntLE(seed, 4 * i);
+        }
+        long nonce = seed.length >= 40 ? Bytes.bytesToLongLE(seed, 32) : 0;
+        init(key, 0, nonce);
+    }
+
+    /**
+     * Creates a generator with the given key, counter and nonce. For testing.
+     */
+    ChaCha20Random(int[] key, long counter, long nonce) {
+        init(key, counter, nonce);
+    }
+
+    private void init(int[] key, long counter, long nonce) {
+        state[0] = 0x61707865;
+        state[1] = 0x3320646e;
+        state[2] = 0x79622d32;
+        state[3] = 0x6b206574;
+        System.arraycopy(key, 0, state, 4, 8);
+        state[12] = (int) counter;
+        state[13] = (int) (counter >>> 32);
+        state[14] = (int) nonce;
+        state[15] = (int) (nonce >>> 32);
+    }
+
+    /**
+     * Returns the generator of the current thread.
+     */
+    public static ChaCha20Random current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns a new generator keyed with 40 bytes of the key stream of this one.
+     */
+    public ChaCha20Random split() {
+        byte[] seed = new byte[40];
+        nextBytes(seed);
+        return new ChaCha20Random(seed);
+    }
+
+    public int nextInt() {
+        if (index == 16) {
+            nextBlock();
+        }
+        return block[index++];
+    }
+
+    public long nextLong() {
+        return ((long) nextInt() << 32) | (nextInt() & 0xffffffffL);
+    }
+
+    /**
+     * Returns a value in [0, bound), evenly distributed.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound <= 0 not allowed");
+        }
+
+        int bits;
+        int value;
+        do {
+            bits = nextInt() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    /**
+     * Returns a value in [0.0, 1.0).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Fills a range of a long array with random values.
+     */
+    public void nextLongs(long[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        for (int i = offset, end = offset + length; i < end; i++) {
+            dest[i] = nextLong();
+        }
+    }
+
+    /**
+     * Fills a range of a byte array with key stream bytes. Whole blocks are
+     * written directly to dest.
+     */
+    public void nextBytes(byte[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int i = offset;
+        int end = offset + length;
+
+        for (; index < 16 && i + 4 <= end; i += 4) {
+            Bytes.intToBytesLE(block[index++], dest, i);
+        }
+
+        for (; i + 64 <= end; i += 64) {
+            nextBlock();
+            for (int j = 0; j < 16; j++) {
+                Bytes.intToBytesLE(block[j], dest, i + 4 * j);
+            }
+            index = 16;
+        }
+
+        for (; i + 4 <= end; i += 4) {
+            Bytes.intToBytesLE(nextInt(), dest, i);
+        }
+
+        if (i < end) {
+            int value = nextInt();
+            for (; i < end; i++) {
+                dest[i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+
+    public void nextBytes(byte[] dest) {
+        nextBytes(dest, 0, dest.length);
+    }
+
+    /**
+     * Computes the next key stream block and increments the counter.
+     */
+    private void nextBlock() {
+        int[] s = state;
+        int x0 = s[0], x1 = s[1], x2 = s[2], x3 = s[3];
+        int x4 = s[4], x5 = s[5], x6 = s[6], x7 = s[7];
+        int x8 = s[8], x9 = s[9], x10 = s[10], x11 = s[11];
+        int x12 = s[12], x13 = s[13], x14 = s[14], x15 = s[15];
+
+        for (int i = 0; i < 10; i++) {
+            // Column rounds.
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+            x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+            x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+            x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+            x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+            x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+            x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+            x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+            x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+            // Diagonal rounds.
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+            x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+            x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+            x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+            x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+            x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+            x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+            x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+            x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+        }
+
+        int[] b = block;
+        b[0] = x0 + s[0]; b[1] = x1 + s[1]; b[2] = x2 + s[2]; b[3] = x3 + s[3];
+        b[4] = x4 + s[4]; b[5] = x5 + s[5]; b[6] = x6 + s[6]; b[7] = x7 + s[7];
+        b[8] = x8 + s[8]; b[9] = x9 + s[9]; b[10] = x10 + s[10]; b[11] = x11 + s[11];
+        b[12] = x12 + s[12]; b[13] = x13 + s[13]; b[14] = x14 + s[14]; b[15] = x15 + s[15];
+        index = 0;
+
+        if (++s[12] == 0) {
+            s[13]++;
+        }
+    }
+}
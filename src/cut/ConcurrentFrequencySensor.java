@@ -0,0 +1,168 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free variant of FrequencySensor for sensors that are ticked from many threads.
+ * The same exponential-decay model is used, see the bottom of FrequencySensor.java.
+ * No locks are taken by tick() and getFrequency().
+ * Math.pow() is not used; the decay factor is computed with a table-based 2^-x.
+ *
+ * <p>The state, the time of the last event and the frequency value, is an immutable
+ * object that tick() replaces with a single CAS. So the result of racing ticks is
+ * always the result of the same ticks made one at a time, in some order.
+ * tick() allocates one small state object per attempt; getFrequency() allocates
+ * nothing.</p>
+ *
+ * <p>Differences to FrequencySensor: events with the same time or with a time before
+ * the last event's time (possible when threads race) are counted as simultaneous with the
+ * last event, instead of giving NaN or being treated as later events.
+ * tick(nanoTime, count) reports count events at once; the events are assumed to be
+ * evenly spread since the last event.</p>
+ */
+public class ConcurrentFrequencySensor {
+    private static final double LN2 = Math.log(2.0);
+
+    /** 2^(-i/64), i = 0..64. */
+    private static final double[] EXP2_TABLE = createTable();
+
+    /** Half life in seconds. */
+    private final double halfLife;
+
+    /** 1 / (half life in nanoseconds). */
+    private final double invHalfLifeNanos;
+
+    private final AtomicReference<State> state;
+
+    /**
+     * Immutable state: time of last event in nanoseconds and the frequency estimate
+     * at that time.
+     */
+    private static final class State {
+        final long valueTime;
+        final double value;
+
+        State(long valueTime, double value) {
+            this.valueTime = valueTime;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A new sensor. To measure frequency accurately, the average time between events should be
+     * many times smaller than halfLife. The frequency value estimate start at 0.0.
+     *
+     * @param halfLifeInSeconds
+     *            Half life for averaging in seconds.
+     * @param startTimeInNanos
+     *            Start time (current time) of the measurement in nano seconds.
+     */
+    public ConcurrentFrequencySensor(double halfLifeInSeconds, long startTimeInNanos) {
+        if (halfLifeInSeconds <= 0.0) {
+            throw new IllegalArgumentException();
+        }
+        this.halfLife = halfLifeInSeconds;
+        this.invHalfLifeNanos = 1e-9 / halfLifeInSeconds;
+        this.state = new AtomicReference<State>(new State(startTimeInNanos, 0.0));
+    }
+
+    /**
+     * Call this every time an event occurs.
+     */
+    public void tick() {
+        tick(System.nanoTime(), 1);
+    }
+
+    /**
+     * Call this method every time an event occurs. This method takes a nano second time value.
+     * Useful for deterministic testing and other scenarios when the system nano time
+     * (System.nanoTime()) should not be used.
+     *
+     * @param nanoTime
+     *            Current time in nano seconds.
+     */
+    public void tick(long nanoTime) {
+        tick(nanoTime, 1);
+    }
+
+    /**
+     * Reports count events at once, for example a batch of events handled together.
+     *
+     * @param nanoTime
+     *            Current time in nano seconds.
+     * @param count
+     *            Number of events, zero or more.
+     */
+    public void tick(long nanoTime, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0 not allowed");
+        }
+
+        while (true) {
+            State s = state.get();
+            long diff = nanoTime - s.valueTime;
+            State newState;
+
+            if (diff <= 0) {
+                // Limit of (1 - decayFactor) / diff when diff goes to zero.
+                newState = new State(s.valueTime, s.value + count * LN2 / halfLife);
+            } else {
+                double decayFactor = exp2Negative(diff * invHalfLifeNanos);
+
+                // frequency estimate since last event is count / <time since last event>
+                double weight = (1.0 - decayFactor) * count / (1e-9 * diff);
+                newState = new State(nanoTime, decayFactor * s.value + weight);
+            }
+
+            if (state.compareAndSet(s, newState)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the frequency in occurrences per second.
+     *
+     * @param nanoTime
+     *            Current time in nano seconds.
+     */
+    public double getFrequency(long nanoTime) {
+        State s = state.get();
+        return s.value * exp2Negative(Math.abs(nanoTime - s.valueTime) * invHalfLifeNanos);
+    }
+
+    public String toString() {
+        return "f=" + getFrequency(System.nanoTime());
+    }
+
+    /**
+     * Returns 2^(-x) for x &gt;= 0 without calling Math.pow().
+     * Relative error less than 1e-12.
+     */
+    static double exp2Negative(double x) {
+        if (!(x < 1000.0)) {
+            return 0.0;    // also for NaN
+        }
+
+        // x = n + i/64 + r, 0 <= r < 1/64.
+
+        double scaled = x * 64.0;
+        long k = (long) scaled;
+        int n = (int) (k >>> 6);
+        int i = (int) (k & 63);
+        double y = (scaled - k) * (LN2 / 64.0);
+
+        // e^-y, 0 <= y < 0.011
+        double e = 1.0 - y * (1.0 - y * (0.5 - y * (1.0 / 6 - y * (1.0 / 24 - y * (1.0 / 120)))));
+
+        return Math.scalb(EXP2_TABLE[i] * e, -n);
+    }
+
+    private static double[] createTable() {
+        double[] table = new double[65];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = Math.pow(2.0, -i / 64.0);
+        }
+        return table;
+    }
+}
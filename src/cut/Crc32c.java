@@ -0,0 +1,265 @@
+package cut;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli) checksum. java.util.zip.CRC32C is used when available (Java 9 and
+ * later); it uses hardware instructions on common CPUs. Otherwise, a pure-Java
+ * slicing-by-8 implementation is used.
+ *
+ * The class implements java.util.zip.Checksum, so it can be used with
+ * java.util.zip.CheckedInputStream and CheckedOutputStream to compute a checksum while
+ * data is copied, for example with Io.copy():
+ *
+ * <pre>
+ * Crc32c crc = new Crc32c();
+ * Io.copy(new CheckedInputStream(in, crc), out);
+ * long checksum = crc.getValue();
+ * </pre>
+ *
+ * Instances are not thread-safe.
+ */
+public class Crc32c implements Checksum {
+    /** Reversed Castagnoli polynomial. */
+    private static final int POLY = 0x82f63b78;
+
+    /** Slicing-by-8 tables, table k at offset k*256. */
+    private static final int[] TABLE = createTable();
+
+    /**
+     * CRC32C.update(ByteBuffer), or null if not available. It reads direct buffers
+     * without copying. Not in the Checksum interface of Java 8, so called with a handle.
+     */
+    private static final MethodHandle JDK_UPDATE_BUFFER = jdkUpdateBuffer();
+
+    /**
+     * Constructor of java.util.zip.CRC32C, or null if not available. A constant method
+     * handle, so new instances are created without reflection on each call.
+     */
+    private static final MethodHandle JDK_CONSTRUCTOR = JDK_UPDATE_BUFFER == null ? null : jdkConstructor();
+
+    /** The JDK implementation, or null if not available. */
+    private final Checksum jdk;
+
+    /** Current CRC, inverted. Used only when jdk == null. */
+    private int crc;
+
+    public Crc32c() {
+        this(true);
+    }
+
+    /**
+     * Package-private for testing. Use useJdk == false to force the pure-Java implementation.
+     */
+    Crc32c(boolean useJdk) {
+        this.jdk = useJdk ? newJdkInstance() : null;
+        this.crc = 0xffffffff;
+    }
+
+    /**
+     * Returns the CRC32C checksum of the given bytes.
+     */
+    public static long compute(byte[] bytes, int offset, int length) {
+        Crc32c c = new Crc32c();
+        c.update(bytes, offset, length);
+        return c.getValue();
+    }
+
+    /**
+     * Returns the CRC32C checksum of the remaining bytes in the buffer.
+     * The position of the buffer is not changed.
+     */
+    public static long compute(ByteBuffer buffer) {
+        Crc32c c = new Crc32c();
+        c.update(buffer.duplicate());
+        return c.getValue();
+    }
+
+    public void update(int b) {
+        if (jdk != null) {
+            jdk.update(b);
+        } else {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xff];
+        }
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        if (jdk != null) {
+            jdk.update(bytes, offset, length);
+        } else {
+            crc = update(crc, bytes, offset, length);
+        }
+    }
+
+    public void update(byte[] bytes) {
+        update(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Updates the checksum with the remaining bytes of the buffer.
+     * The position of the buffer is set to its limit.
+     * Direct buffers are read in place; no bytes are copied.
+     */
+    public void update(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int pos = buffer.position();
+            int length = buffer.remaining();
+            update(buffer.array(), buffer.arrayOffset() + pos, length);
+            buffer.position(pos + length);
+        } else if (jdk != null) {
+            try {
+                JDK_UPDATE_BUFFER.invokeExact(jdk, buffer);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            crc = update(crc, buffer, buffer.position(), buffer.limit());
+            buffer.position(buffer.limit());
+        }
+    }
+
+    public long getValue() {
+        if (jdk != null) {
+            return jdk.getValue();
+        }
+        return ~crc & 0xffffffffL;
+    }
+
+    public void reset() {
+        if (jdk != null) {
+            jdk.reset();
+        } else {
+            crc = 0xffffffff;
+        }
+    }
+
+    /**
+     * Returns true if the JDK implementation (java.util.zip.CRC32C) is available.
+     */
+    public static boolean isJdkAvailable() {
+        return JDK_CONSTRUCTOR != null;
+    }
+
+    /**
+     * Slicing-by-8: the CRC of 8 bytes is computed with 8 independent table lookups.
+     */
+    private static int update(int crc, byte[] b, int offset, int length) {
+        int[] t = TABLE;
+        int i = offset;
+        int end = offset + length;
+
+        for (; i + 8 <= end; i += 8) {
+            crc = slice8(t, crc ^ Bytes.bytesToIntLE(b, i), Bytes.bytesToIntLE(b, i + 4));
+        }
+
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t[(crc ^ b[i]) & 0xff];
+        }
+
+        return crc;
+    }
+
+    /**
+     * Slicing-by-8 over [offset, end) of a buffer, with absolute gets.
+     */
+    private static int update(int crc, ByteBuffer b, int offset, int end) {
+        int[] t = TABLE;
+        boolean littleEndian = b.order() == ByteOrder.LITTLE_ENDIAN;
+        int i = offset;
+
+        for (; i + 8 <= end; i += 8) {
+            long v = b.getLong(i);
+            if (!littleEndian) {
+                v = Long.reverseBytes(v);
+            }
+            crc = slice8(t, crc ^ (int) v, (int) (v >>> 32));
+        }
+
+        for (; i < end; i++) {
+            crc = (crc >>> 8) ^ t[(crc ^ b.get(i)) & 0xff];
+        }
+
+        return crc;
+    }
+
+    /**
+     * Returns the CRC after 8 bytes; lo is the first 4 bytes xor the CRC, hi the last 4.
+     */
+    private static int slice8(int[] t, int lo, int hi) {
+        return t[7*256 + (lo & 0xff)]
+                ^ t[6*256 + ((lo >>> 8) & 0xff)]
+                ^ t[5*256 + ((lo >>> 16) & 0xff)]
+                ^ t[4*256 + (lo >>> 24)]
+                ^ t[3*256 + (hi & 0xff)]
+                ^ t[2*256 + ((hi >>> 8) & 0xff)]
+                ^ t[1*256 + ((hi >>> 16) & 0xff)]
+                ^ t[hi >>> 24];
+    }
+
+    private static int[] createTable() {
+        int[] t = new int[8 * 256];
+
+        for (int n = 0; n < 256; n++) {
+            int c = n;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+            }
+            t[n] = c;
+        }
+
+        for (int k = 1; k < 8; k++) {
+            for (int n = 0; n < 256; n++) {
+                int prev = t[(k - 1)*256 + n];
+                t[k*256 + n] = (prev >>> 8) ^ t[prev & 0xff];
+            }
+        }
+
+        return t;
+    }
+
+    private static MethodHandle jdkConstructor() {
+        try {
+            Class<?> c = Class.forName("java.util.zip.CRC32C");
+            return MethodHandles.publicLookup().findConstructor(c, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle jdkUpdateBuffer() {
+        try {
+            Class<?> c = Class.forName("java.util.zip.CRC32C");
+            return MethodHandles.publicLookup()
+                    .findVirtual(c, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static Checksum newJdkInstance() {
+        if (JDK_CONSTRUCTOR == null) {
+            return null;
+        }
+
+        try {
+            return (Checksum) JDK_CONSTRUCTOR.invokeExact();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
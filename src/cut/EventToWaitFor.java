@@ -4,17 +4,27 @@ package cut;
  * An event that a thread can wait for to happen.
  * Simple thread synchronization.
  * 
+ * <p>No monitors are used; happened() does not block. How waiters wait, spinning
+ * or parking, is given by a WaitStrategy; the default is WaitStrategy.BLOCKING.</p>
+ * 
  * @author Frans Lundberg
  */
 public class EventToWaitFor {
-    private boolean hasHappened = false;
+    private final ToWaitFor toWaitFor;
+
+    public EventToWaitFor() {
+        this(WaitStrategy.BLOCKING);
+    }
+
+    public EventToWaitFor(WaitStrategy strategy) {
+        this.toWaitFor = new ToWaitFor(strategy);
+    }
 
     /**
      * Tells this object that the event has occurred.
      */
-    public synchronized void happened() {
-        hasHappened = true;
-        notifyAll();
+    public void happened() {
+        toWaitFor.reportHappened();
     }
 
     /**
@@ -22,7 +32,7 @@ public class EventToWaitFor {
      * method also returns immediately if the calling thread is interrupted.
      * Waits indefinitely.
      */
-    public synchronized void waitForEvent() {
+    public void waitForEvent() {
         waitForEvent(0);
     }
 
@@ -31,19 +41,28 @@ public class EventToWaitFor {
      * method also returns immediately if the calling thread is interrupted.
      * Waiting is constrained by the time parameter.
      * 
-     * @param time Maximum time to wait in milliseconds.
+     * @param time Maximum time to wait in milliseconds, 0 means no timeout.
+     */
+    public void waitForEvent(long time) {
+        toWaitFor.waitForIt(time == 0 ? Long.MAX_VALUE : time);
+    }
+
+    /**
+     * Waits for event to occur, constrained by a time in nanoseconds.
+     * 
+     * @param nanos Maximum time to wait in nanoseconds, Long.MAX_VALUE means no timeout.
+     * @return true if the event has happened, false if this method returns 
+     *      because of a timeout or because this thread was interrupted.
+     */
+    public boolean waitForEventNanos(long nanos) {
+        return toWaitFor.waitForItNanos(nanos);
+    }
+
+    /**
+     * Returns the underlying ToWaitFor, used by AwaitEvents.
      */
-    public synchronized void waitForEvent(long time) {
-        try {
-            if (!hasHappened) {
-                wait(time);
-                if (!hasHappened) {
-                    return;
-                }
-            }
-        } catch (InterruptedException e) {
-            // Silently ignore. We were stopped by another thread
-        }
+    ToWaitFor toWaitFor() {
+        return toWaitFor;
     }
 
     /**
@@ -51,7 +70,7 @@ public class EventToWaitFor {
      * 
      * @return true if happened.
      */
-    public synchronized boolean didItHappen() {
-        return hasHappened;
+    public boolean didItHappen() {
+        return toWaitFor.hasHappened();
     }
 }
@@ -0,0 +1,287 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reusable event, a one-to-many signal like java.util.concurrent.Phaser. Unlike
+ * ToWaitFor, an instance can be used any number of times. The event has a generation
+ * number; a waiter reads the current generation and waits until it advances.
+ * The generation advances when reportHappened() has been called count times
+ * (once by default) since the last advance; then the count starts over.
+ *
+ * <pre>
+ * int generation = event.generation();
+ * ... start work that will call event.reportHappened() ...
+ * event.waitForAdvanceNanos(generation, timeout);
+ * </pre>
+ *
+ * <p>Waiting for a generation that has already advanced returns immediately, so there is
+ * no race between reading the generation and waiting. Nothing is allocated per round;
+ * only a waiter that parks creates a small node.</p>
+ *
+ * <p>No monitors are used. How waiters wait, spinning or parking, is given by a
+ * WaitStrategy; the default is WaitStrategy.BLOCKING.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class GenerationEvent {
+    private final int count;
+    private final WaitStrategy strategy;
+
+    /** Generation (high 32 bits) and remaining reports (low 32 bits). */
+    private final AtomicLong state;
+
+    /** Parked waiters. */
+    private final AtomicReference<Node> waiters = new AtomicReference<Node>();
+
+    /** Polled by WaitStrategy.spin(), arg is the generation waited for. */
+    private final WaitStrategy.Condition advanced = new WaitStrategy.Condition() {
+        public boolean isTrue(int generation) {
+            return generation() != generation;
+        }
+    };
+
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    /**
+     * A parked waiter. thread is set to null when the node is popped by wakeUp() or when
+     * the waiter has given up.
+     */
+    private static final class Node {
+        volatile Thread thread;
+        volatile Node next;
+
+        Node(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * Creates an event that advances on each reportHappened().
+     */
+    public GenerationEvent() {
+        this(1, WaitStrategy.BLOCKING);
+    }
+
+    /**
+     * Creates an event that advances when reportHappened() has been called count times.
+     */
+    public GenerationEvent(int count) {
+        this(count, WaitStrategy.BLOCKING);
+    }
+
+    public GenerationEvent(int count, WaitStrategy strategy) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count < 1 not allowed");
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy == null not allowed");
+        }
+        this.count = count;
+        this.strategy = strategy;
+        this.state = new AtomicLong(count);
+    }
+
+    /**
+     * Returns the current generation.
+     */
+    public int generation() {
+        return (int) (state.get() >>> 32);
+    }
+
+    /**
+     * Returns the number of reports left until the generation advances.
+     */
+    public int getRemaining() {
+        return (int) state.get();
+    }
+
+    /**
+     * Reports that the event has happened. Advances the generation and wakes up the
+     * waiters if this is the count:th report of the generation.
+     *
+     * @return The generation the report belongs to.
+     */
+    public int reportHappened() {
+        while (true) {
+            long s = state.get();
+            int generation = (int) (s >>> 32);
+            int remaining = (int) s;
+
+            if (remaining > 1) {
+                if (state.compareAndSet(s, s - 1)) {
+                    return generation;
+                }
+            } else {
+                if (state.compareAndSet(s, pack(generation + 1, count))) {
+                    wakeUp();
+                    return generation;
+                }
+            }
+        }
+    }
+
+    /**
+     * Restarts the count of the current generation, without advancing it.
+     * Reports made before the reset are forgotten.
+     */
+    public void reset() {
+        while (true) {
+            long s = state.get();
+            if (state.compareAndSet(s, pack((int) (s >>> 32), count))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Waits until the generation differs from the given one, or returns immediately if it
+     * does. The method also returns immediately if the calling thread is interrupted.
+     *
+     * @param generation  A generation, typically from generation().
+     * @param nanos  Maximum time to wait in nanoseconds, Long.MAX_VALUE means no timeout.
+     * @return true if the generation has advanced, false if this method returns because
+     *      of a timeout or because this thread was interrupted.
+     */
+    public boolean waitForAdvanceNanos(int generation, long nanos) {
+        if (Thread.interrupted()) {
+            return false;
+        }
+        if (generation() != generation) {
+            return true;
+        }
+        if (nanos <= 0) {
+            return false;
+        }
+
+        boolean timed = nanos < Long.MAX_VALUE / 2;
+        long deadline = timed ? System.nanoTime() + nanos : 0;
+
+        int result = strategy.spin(advanced, generation, timed, deadline);
+        if (result != WaitStrategy.PARK) {
+            return result == WaitStrategy.DONE;
+        }
+
+        // The generation is checked after a node is pushed, so a concurrent advance
+        // either is seen here or unparks this thread. An advance to the generation
+        // waited for may still pop the node (reportHappened() advances the state before
+        // it pops the waiters); then a new node is pushed before parking again.
+
+        Node node = null;
+        while (generation() == generation) {
+            if (node == null || node.thread == null) {
+                node = push();
+                continue;
+            }
+
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    cancel(node);
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+
+            if (Thread.interrupted()) {
+                cancel(node);
+                return false;
+            }
+        }
+
+        if (node != null) {
+            node.thread = null;    // popped by the advance, or by the next one
+        }
+        return true;
+    }
+
+    /**
+     * Waits until the generation differs from the given one.
+     *
+     * @throws InterruptedException If this thread was interrupted.
+     */
+    public void awaitAdvance(int generation) throws InterruptedException {
+        if (!waitForAdvanceNanos(generation, Long.MAX_VALUE)) {
+            throw new InterruptedException();
+        }
+    }
+
+    private Node push() {
+        Node node = new Node(Thread.currentThread());
+        while (true) {
+            Node h = waiters.get();
+            node.next = h;
+            if (waiters.compareAndSet(h, node)) {
+                return node;
+            }
+        }
+    }
+
+    private void wakeUp() {
+        Node node = waiters.getAndSet(null);
+        for (; node != null; node = node.next) {
+            Thread t = node.thread;
+            if (t != null) {
+                node.thread = null;
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Marks a node as given up and unlinks all given-up nodes from the stack, like
+     * ToWaitFor does. A node is only removed by a CAS of its predecessor's next field.
+     */
+    private void cancel(Node node) {
+        node.thread = null;
+
+        retry:
+        while (true) {
+            Node h = waiters.get();
+            if (h == null) {
+                return;
+            }
+            if (h.thread == null) {
+                waiters.compareAndSet(h, h.next);
+                continue;
+            }
+
+            Node pred = h;
+            Node n = h.next;
+            while (n != null) {
+                if (n.thread == null) {
+                    Node succ = n.next;
+                    if (!NEXT.compareAndSet(pred, n, succ)) {
+                        continue retry;
+                    }
+                    n = succ;
+                } else {
+                    pred = n;
+                    n = n.next;
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the stack. For testing.
+     */
+    int nodeCount() {
+        int count = 0;
+        for (Node n = waiters.get(); n != null; n = n.next) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long pack(int generation, int remaining) {
+        return ((long) generation << 32) | (remaining & 0xffffffffL);
+    }
+}
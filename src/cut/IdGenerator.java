@@ -0,0 +1,181 @@
+package cut;
+
+/**
+ * Generates 128-bit unique IDs: random IDs and time-ordered IDs. The random bits come from
+ * the ChaCha20Random generator of the current thread (seeded by SeedGenerator), so
+ * threads do not contend. IDs are written as bytes (big-endian) or as lowercase hex
+ * to a caller's buffer; no objects are created except by the methods that return a String.
+ *
+ * <p>A time-ordered ID is the time in clock units (100 ns units since epoch, see
+ * TimeResolver) from MonotonicClock.getDefault(), 8 bytes, followed by 8 random bytes.
+ * Time-ordered IDs created in one JVM are strictly increasing, also between threads,
+ * compared as unsigned bytes or as hex strings. Such IDs give sequential inserts in
+ * B-tree indexes.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public class IdGenerator {
+    /** Size of an ID in bytes. */
+    public static final int SIZE = 16;
+
+    /** Length of an ID in hex. */
+    public static final int HEX_LENGTH = 32;
+
+    /** Length of a UUID string, "xxxxxxxx-xxxx-4xxx-yxxx-xxxxxxxxxxxx". */
+    public static final int UUID_LENGTH = 36;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private IdGenerator() {
+    }
+
+    /**
+     * Writes a random ID, 16 bytes, to dest.
+     */
+    public static void randomId(byte[] dest, int offset) {
+        ChaCha20Random r = ChaCha20Random.current();
+        write(r.nextLong(), r.nextLong(), dest, offset);
+    }
+
+    /**
+     * Writes a random ID as hex, 32 chars, to dest.
+     *
+     * @return The offset after the written chars, offset + 32.
+     */
+    public static int randomIdHex(char[] dest, int offset) {
+        ChaCha20Random r = ChaCha20Random.current();
+        return writeHex(r.nextLong(), r.nextLong(), dest, offset);
+    }
+
+    /**
+     * Writes a random ID as hex, 32 ASCII bytes, to dest.
+     *
+     * @return The offset after the written bytes, offset + 32.
+     */
+    public static int randomIdHex(byte[] dest, int offset) {
+        ChaCha20Random r = ChaCha20Random.current();
+        return writeHex(r.nextLong(), r.nextLong(), dest, offset);
+    }
+
+    /**
+     * Returns a random ID as a hex string.
+     */
+    public static String randomIdString() {
+        char[] chars = new char[HEX_LENGTH];
+        randomIdHex(chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Writes a time-ordered ID, 16 bytes, to dest.
+     */
+    public static void timeOrderedId(byte[] dest, int offset) {
+        write(MonotonicClock.getDefault().now(), ChaCha20Random.current().nextLong(), dest, offset);
+    }
+
+    /**
+     * Writes a time-ordered ID as hex, 32 chars, to dest.
+     *
+     * @return The offset after the written chars, offset + 32.
+     */
+    public static int timeOrderedIdHex(char[] dest, int offset) {
+        return writeHex(MonotonicClock.getDefault().now(), ChaCha20Random.current().nextLong(),
+                dest, offset);
+    }
+
+    /**
+     * Writes a time-ordered ID as hex, 32 ASCII bytes, to dest.
+     *
+     * @return The offset after the written bytes, offset + 32.
+     */
+    public static int timeOrderedIdHex(byte[] dest, int offset) {
+        return writeHex(MonotonicClock.getDefault().now(), ChaCha20Random.current().nextLong(),
+                dest, offset);
+    }
+
+    /**
+     * Returns a time-ordered ID as a hex string.
+     */
+    public static String timeOrderedIdString() {
+        char[] chars = new char[HEX_LENGTH];
+        timeOrderedIdHex(chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Writes a random (version 4) UUID string, 36 chars, to dest. The same format as
+     * UUID.randomUUID().toString().
+     *
+     * @return The offset after the written chars, offset + 36.
+     */
+    public static int randomUuid(char[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - UUID_LENGTH) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+
+        ChaCha20Random r = ChaCha20Random.current();
+        long hi = (r.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;
+        long lo = (r.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+        int o = offset;
+        o = hex(hi >>> 32, 8, dest, o);
+        dest[o++] = '-';
+        o = hex(hi >>> 16, 4, dest, o);
+        dest[o++] = '-';
+        o = hex(hi, 4, dest, o);
+        dest[o++] = '-';
+        o = hex(lo >>> 48, 4, dest, o);
+        dest[o++] = '-';
+        return hex(lo, 12, dest, o);
+    }
+
+    /**
+     * Returns a random (version 4) UUID string.
+     */
+    public static String randomUuidString() {
+        char[] chars = new char[UUID_LENGTH];
+        randomUuid(chars, 0);
+        return new String(chars);
+    }
+
+    private static void write(long hi, long lo, byte[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - SIZE) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        Bytes.longToBytesBE(hi, dest, offset);
+        Bytes.longToBytesBE(lo, dest, offset + 8);
+    }
+
+    private static int writeHex(long hi, long lo, char[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - HEX_LENGTH) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        return hex(lo, 16, dest, hex(hi, 16, dest, offset));
+    }
+
+    private static int writeHex(long hi, long lo, byte[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - HEX_LENGTH) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        return hex(lo, 16, dest, hex(hi, 16, dest, offset));
+    }
+
+    /**
+     * Writes the lowest digits hex digits of value, most significant first.
+     */
+    private static int hex(long value, int digits, char[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return offset + digits;
+    }
+
+    private static int hex(long value, int digits, byte[] dest, int offset) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = (byte) DIGITS[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return offset + digits;
+    }
+}
@@ -0,0 +1,358 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-memory histogram of durations in nanoseconds (or any non-negative long values),
+ * for latency percentiles. Buckets are log-linear like in HdrHistogram: values below
+ * 2^precisionBits are counted exactly, larger values in buckets with a relative width
+ * of at most 2^-precisionBits. With the default precision, 6 bits, the relative error of
+ * a percentile is below 1.6%.
+ *
+ * <p>record() is lock-free and allocates nothing. To avoid contention, counts are kept in
+ * a number of stripes; a thread always records to the same stripe, chosen from its id.
+ * Memory use is 2 * (64 - precisionBits) * 2^precisionBits longs per stripe.</p>
+ *
+ * <p>snapshot() returns an immutable Snapshot that answers percentile queries.
+ * snapshotAndReset() also clears the histogram, for interval snapshots; each recorded
+ * value, its count and its part of the sum, ends up in exactly one interval.
+ * Snapshots with the same precision can be merged.</p>
+ *
+ * <p>Interval snapshots use two arrays per stripe, an active one and an inactive one,
+ * as in HdrHistogram's WriterReaderPhaser. record() counts itself in and out with two
+ * atomic increments of the stripe's epoch counters; snapshotAndReset() swaps the arrays
+ * and waits for the records in progress on the old array before it reads and clears it.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class LatencyHistogram {
+    /** Default precision, 6 bits, relative bucket width at most 1/64. */
+    public static final int DEFAULT_PRECISION_BITS = 6;
+
+    private final int precisionBits;
+    private final int bucketCount;
+    private final int stripeMask;
+
+    private final Stripe[] stripes;
+
+    /**
+     * A stripe. Each array has bucketCount bucket counts followed by the sum of values.
+     * Records go to arrays[0] when startEpoch is &gt;= 0 (even phase), otherwise to
+     * arrays[1] (odd phase). A record increments startEpoch when it starts and the end
+     * epoch of its phase when it is done. The odd phase counts from Long.MIN_VALUE.
+     */
+    private static final class Stripe {
+        final AtomicLong startEpoch = new AtomicLong();
+        final AtomicLong evenEndEpoch = new AtomicLong();
+        final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLongArray[] arrays;
+
+        Stripe(int length) {
+            arrays = new AtomicLongArray[] {new AtomicLongArray(length), new AtomicLongArray(length)};
+        }
+    }
+
+    /**
+     * Immutable snapshot of a histogram.
+     */
+    public static final class Snapshot {
+        private final int precisionBits;
+        private final long[] counts;
+        private final long totalCount;
+        private final long sum;
+
+        Snapshot(int precisionBits, long[] counts, long sum) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.precisionBits = precisionBits;
+            this.counts = counts;
+            this.totalCount = total;
+            this.sum = sum;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         */
+        public long getCount() {
+            return totalCount;
+        }
+
+        /**
+         * Returns the sum of recorded values.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the mean of the recorded values, 0.0 if there are none.
+         */
+        public double getMean() {
+            return totalCount == 0 ? 0.0 : (double) sum / totalCount;
+        }
+
+        /**
+         * Returns the lowest recorded value (the lowest value of its bucket), 0 if none.
+         */
+        public long getMin() {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    return lowestValue(precisionBits, i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the highest recorded value (the highest value of its bucket), 0 if none.
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValue(precisionBits, i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the value at a percentile: the highest value of the bucket in which the
+         * count of values up to and including the bucket reaches the percentile.
+         * Returns 0 if there are no values.
+         *
+         * @param percentile  Percentile, 0.0 - 100.0.
+         */
+        public long getPercentile(double percentile) {
+            if (!(percentile >= 0.0 && percentile <= 100.0)) {
+                throw new IllegalArgumentException("bad percentile: " + percentile);
+            }
+            if (totalCount == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(percentile / 100.0 * totalCount);
+            if (target < 1) {
+                target = 1;
+            }
+
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                if (cumulative >= target) {
+                    return highestValue(precisionBits, i);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Returns a new snapshot with the values of this snapshot and another one.
+         *
+         * @throws IllegalArgumentException If the precisions differ.
+         */
+        public Snapshot merge(Snapshot other) {
+            if (other.precisionBits != precisionBits) {
+                throw new IllegalArgumentException("precisions differ");
+            }
+            long[] merged = new long[counts.length];
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(precisionBits, merged, sum + other.sum);
+        }
+
+        public String toString() {
+            return "count=" + totalCount + ", mean=" + getMean()
+                    + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+                    + ", max=" + getMax();
+        }
+    }
+
+    /**
+     * Creates a histogram with the default precision and one stripe per available
+     * processor (rounded up to a power of two, max 64).
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param precisionBits  Precision bits, 1 - 16.
+     * @param stripes  Number of stripes, rounded up to a power of two, max 64.
+     */
+    public LatencyHistogram(int precisionBits, int stripes) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("bad precisionBits: " + precisionBits);
+        }
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes < 1 not allowed");
+        }
+
+        int n = 1;
+        while (n < stripes && n < 64) {
+            n *= 2;
+        }
+
+        this.precisionBits = precisionBits;
+        this.bucketCount = (64 - precisionBits) << precisionBits;
+        this.stripeMask = n - 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe(bucketCount + 1);
+        }
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value  The value, typically a duration in nanoseconds, &gt;= 0.
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records a value count times.
+     *
+     * @param value  The value, typically a duration in nanoseconds, &gt;= 0.
+     * @param count  Number of times, &gt;= 0.
+     */
+    public void record(long value, long count) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0 not allowed");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0 not allowed");
+        }
+
+        Stripe stripe = stripe();
+        long epoch = stripe.startEpoch.getAndIncrement();
+        AtomicLongArray array = stripe.arrays[epoch < 0 ? 1 : 0];
+        array.addAndGet(bucketIndex(precisionBits, value), count);
+        array.addAndGet(bucketCount, value * count);
+        (epoch < 0 ? stripe.oddEndEpoch : stripe.evenEndEpoch).getAndIncrement();
+    }
+
+    /**
+     * Returns a snapshot of the recorded values.
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Returns a snapshot of the values recorded since the last reset and resets the
+     * histogram. Waits for records in progress, if any.
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    /**
+     * Returns the number of stripes.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private synchronized Snapshot snapshot(boolean reset) {
+        long[] counts = new long[bucketCount];
+        long sum = 0;
+
+        for (Stripe stripe : stripes) {
+            if (reset) {
+                // The inactive array is zero; records go there after the swap.
+                AtomicLongArray array = swap(stripe);
+                for (int i = 0; i < bucketCount; i++) {
+                    counts[i] += array.getAndSet(i, 0);
+                }
+                sum += array.getAndSet(bucketCount, 0);
+            } else {
+                for (AtomicLongArray array : stripe.arrays) {
+                    for (int i = 0; i < bucketCount; i++) {
+                        counts[i] += array.get(i);
+                    }
+                    sum += array.get(bucketCount);
+                }
+            }
+        }
+
+        return new Snapshot(precisionBits, counts, sum);
+    }
+
+    /**
+     * Switches the stripe to the other phase, waits for the records in progress on the
+     * old phase and returns the array of the old phase.
+     */
+    private static AtomicLongArray swap(Stripe stripe) {
+        boolean even = stripe.startEpoch.get() >= 0;
+        AtomicLong endEpoch;
+        long startEpoch;
+
+        if (even) {
+            stripe.oddEndEpoch.set(Long.MIN_VALUE);
+            startEpoch = stripe.startEpoch.getAndSet(Long.MIN_VALUE);
+            endEpoch = stripe.evenEndEpoch;
+        } else {
+            stripe.evenEndEpoch.set(0);
+            startEpoch = stripe.startEpoch.getAndSet(0);
+            endEpoch = stripe.oddEndEpoch;
+        }
+
+        while (endEpoch.get() != startEpoch) {
+            Thread.yield();
+        }
+
+        return stripe.arrays[even ? 0 : 1];
+    }
+
+    private Stripe stripe() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        return stripes[hash & stripeMask];
+    }
+
+    /**
+     * Returns the bucket index of a value &gt;= 0.
+     */
+    static int bucketIndex(int precisionBits, long value) {
+        long subCount = 1L << precisionBits;
+        if (value < subCount) {
+            return (int) value;
+        }
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return (int) (((shift + 1L) << precisionBits) + ((value >>> shift) - subCount));
+    }
+
+    /**
+     * Returns the lowest value of a bucket.
+     */
+    static long lowestValue(int precisionBits, int index) {
+        long subCount = 1L << precisionBits;
+        if (index < subCount) {
+            return index;
+        }
+
+        int shift = (index >>> precisionBits) - 1;
+        return (subCount + (index & (subCount - 1))) << shift;
+    }
+
+    /**
+     * Returns the highest value of a bucket.
+     */
+    static long highestValue(int precisionBits, int index) {
+        long subCount = 1L << precisionBits;
+        if (index < subCount) {
+            return index;
+        }
+
+        int shift = (index >>> precisionBits) - 1;
+        return lowestValue(precisionBits, index) + (1L << shift) - 1;
+    }
+}
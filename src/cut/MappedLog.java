@@ -0,0 +1,386 @@
+package cut;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of length-prefixed, checksummed records stored in a memory-mapped,
+ * pre-allocated file. Appending a record is a couple of memory copies; no system call
+ * is made unless force() is called, or the high-water mark is moved (once per MB).
+ *
+ * <p>File format, all integers little-endian:</p>
+ * <pre>
+ * file = magic highWater *record *zero
+ * magic = 8 bytes, the long MAGIC
+ * highWater = 8 bytes, long, the file is zero from this position on
+ * record = length checksum payload
+ * length = 4 bytes, int, payload length, greater than 0
+ * checksum = 4 bytes, int, CRC32 of the payload
+ * payload = length bytes
+ * </pre>
+ *
+ * <p>When a log is opened, the records are scanned from the start. The scan stops at the
+ * first record with a zero length (the end of the log) or at the first record that is
+ * not valid (a torn write, the process or machine crashed while the record was written).
+ * A torn tail is truncated. In both cases, the file up to the high-water mark is zeroed
+ * if it is not zero already. The high-water mark is written and forced to disk before
+ * anything is written beyond it, so opening a large, mostly empty log only reads the
+ * records and at most HIGH_WATER_STEP bytes after them.</p>
+ *
+ * <p>Appends are thread-safe. Iteration is zero-copy; the records are returned as
+ * read-only ByteBuffer views of the mapped file. An iterator sees the records that
+ * were appended before the iterator was created.</p>
+ *
+ * <p>Note, Java has no portable way to unmap a file. The mapping is released when
+ * the buffer is garbage collected.</p>
+ */
+public class MappedLog implements Iterable<ByteBuffer> {
+    /** First 8 bytes of a log file, "cut-log1" in ASCII, little-endian. */
+    public static final long MAGIC = 0x31676f6c2d747563L;
+
+    /** Size of the file header in bytes. */
+    public static final int FILE_HEADER_SIZE = 16;
+
+    /** The high-water mark is moved at least this many bytes at a time. */
+    public static final int HIGH_WATER_STEP = 1024 * 1024;
+
+    /** Size of the header of each record in bytes. */
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final ByteBuffer writer;
+    private final int capacity;
+    private final byte[] header = new byte[RECORD_HEADER_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    /** Position of the end of the log, where the next record will be written. */
+    private volatile int end;
+
+    /** The file is zero from this position on, also on disk. */
+    private int highWater;
+
+    private MappedLog(String filename, int capacity) throws IOException {
+        if (filename == null) {
+            throw new IllegalArgumentException("filename == null not allowed");
+        }
+        if (capacity < FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("bad capacity, " + capacity);
+        }
+
+        boolean isNew = new File(filename).length() == 0;
+        this.file = new RandomAccessFile(filename, "rw");
+
+        try {
+            if (isNew) {
+                file.setLength(capacity);
+            } else {
+                capacity = (int) Math.min(Integer.MAX_VALUE, file.length());
+            }
+            this.capacity = capacity;
+            this.channel = file.getChannel();
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            this.map.order(ByteOrder.LITTLE_ENDIAN);
+            this.writer = map.duplicate();
+
+            if (isNew) {
+                map.putLong(0, MAGIC);
+                setHighWater(FILE_HEADER_SIZE);
+                this.end = FILE_HEADER_SIZE;
+            } else {
+                this.end = recover();
+            }
+        } catch (IOException e) {
+            close(file);
+            throw e;
+        } catch (RuntimeException e) {
+            close(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing log file or creates a new one.
+     *
+     * @param filename  The name of the file.
+     * @param capacity  The size of the file in bytes when a new file is created.
+     *      Ignored for existing files, their size is used.
+     * @throws IOException If there is an IO problem.
+     * @throws BadFormatException If an existing file is not a log file.
+     */
+    public static MappedLog open(String filename, int capacity) throws IOException {
+        return new MappedLog(filename, capacity);
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @return The position of the record in the file. Can be used with read().
+     * @throws IllegalArgumentException If length is zero or negative.
+     * @throws FullException If there is not room for the record.
+     */
+    public synchronized int append(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("bad length, " + length);
+        }
+
+        int pos = end;
+        if ((long) pos + RECORD_HEADER_SIZE + length > capacity) {
+            throw new FullException("Log is full, capacity: " + capacity
+                    + ", record length: " + length + ".");
+        }
+
+        if (pos + RECORD_HEADER_SIZE + length > highWater) {
+            setHighWater((int) Math.min(capacity, (long) pos + RECORD_HEADER_SIZE + length + HIGH_WATER_STEP));
+        }
+
+        crc.reset();
+        crc.update(bytes, offset, length);
+
+        // Payload first, then the header. A zero length is the end of the log.
+
+        writer.position(pos + RECORD_HEADER_SIZE);
+        writer.put(bytes, offset, length);
+        Bytes.intToBytesLE(length, header, 0);
+        Bytes.intToBytesLE((int) crc.getValue(), header, 4);
+        writer.position(pos);
+        writer.put(header, 0, RECORD_HEADER_SIZE);
+
+        end = pos + RECORD_HEADER_SIZE + length;
+        return pos;
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @see #append(byte[], int, int)
+     */
+    public int append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns a read-only view of the payload of the record at the given position.
+     *
+     * @param position  A position returned by append().
+     * @throws IllegalArgumentException If there is no record at the given position; the
+     *      length is out of range or the checksum does not match.
+     */
+    public ByteBuffer read(int position) {
+        int limit = end;
+        if (position < FILE_HEADER_SIZE || position > limit - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("bad position, " + position);
+        }
+
+        int length = map.getInt(position);
+        if (length <= 0 || length > limit - position - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("bad position, " + position);
+        }
+
+        ByteBuffer result = view(position + RECORD_HEADER_SIZE, length);
+        CRC32 c = new CRC32();
+        c.update(result.duplicate());
+        if ((int) c.getValue() != map.getInt(position + 4)) {
+            throw new IllegalArgumentException("bad position, " + position);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns an iterator over the records appended so far.
+     * The returned ByteBuffers are read-only views of the mapped file.
+     */
+    public Iterator<ByteBuffer> iterator() {
+        final int limit = this.end;
+
+        return new Iterator<ByteBuffer>() {
+            private int pos = FILE_HEADER_SIZE;
+
+            public boolean hasNext() {
+                return pos < limit;
+            }
+
+            public ByteBuffer next() {
+                if (pos >= limit) {
+                    throw new NoSuchElementException();
+                }
+                int length = map.getInt(pos);
+                ByteBuffer result = view(pos + RECORD_HEADER_SIZE, length);
+                pos += RECORD_HEADER_SIZE + length;
+                return result;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the position of the end of the log; the number of bytes used in the file.
+     */
+    public int position() {
+        return end;
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Forces the written records to the storage device.
+     */
+    public void force() {
+        map.force();
+    }
+
+    /**
+     * Forces the records to the storage device and closes the file.
+     */
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * Writes the high-water mark and forces it to disk.
+     */
+    private void setHighWater(int position) {
+        map.putLong(8, position);
+        map.force();
+        highWater = position;
+    }
+
+    /**
+     * Scans the records and zeroes the file after the last valid record, up to the
+     * high-water mark. Returns the end position.
+     */
+    private int recover() {
+        if (capacity < FILE_HEADER_SIZE || map.getLong(0) != MAGIC) {
+            throw new BadFormatException("Not a log file, bad magic number.");
+        }
+
+        long hw = map.getLong(8);
+        if (hw < FILE_HEADER_SIZE || hw > capacity) {
+            throw new BadFormatException("Not a log file, bad high-water mark, " + hw + ".");
+        }
+        highWater = (int) hw;
+
+        int pos = FILE_HEADER_SIZE;
+
+        while (pos + RECORD_HEADER_SIZE <= highWater) {
+            int length = map.getInt(pos);
+            if (length == 0 && map.getInt(pos + 4) == 0) {
+                break;
+            }
+
+            if (length <= 0 || (long) pos + RECORD_HEADER_SIZE + length > highWater) {
+                break;
+            }
+
+            ByteBuffer payload = view(pos + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != map.getInt(pos + 4)) {
+                break;
+            }
+
+            pos += RECORD_HEADER_SIZE + length;
+        }
+
+        // Also after a zero header; later records may have reached the disk before it.
+        if (!isZero(pos)) {
+            truncate(pos);
+        }
+
+        return pos;
+    }
+
+    /**
+     * Returns true if the file is zero from position to the high-water mark.
+     */
+    private boolean isZero(int position) {
+        int pos = position;
+        while (pos < highWater && (pos & 7) != 0) {
+            if (map.get(pos++) != 0) {
+                return false;
+            }
+        }
+        while (pos + 8 <= highWater) {
+            if (map.getLong(pos) != 0) {
+                return false;
+            }
+            pos += 8;
+        }
+        while (pos < highWater) {
+            if (map.get(pos++) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Zeroes the file from position to the high-water mark. Pages can be written to disk
+     * in any order, so valid-looking records may exist after a torn one.
+     */
+    private void truncate(int position) {
+        byte[] zeros = new byte[64 * 1024];
+        writer.position(position);
+        while (writer.position() < highWater) {
+            writer.put(zeros, 0, Math.min(zeros.length, highWater - writer.position()));
+        }
+        map.force();
+    }
+
+    private ByteBuffer view(int position, int length) {
+        ByteBuffer result = map.duplicate();
+        result.position(position);
+        result.limit(position + length);
+        return result.slice().asReadOnlyBuffer();
+    }
+
+    private static void close(RandomAccessFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // empty
+        }
+    }
+
+    /**
+     * Thrown when there is not room for a record to be appended.
+     */
+    public static class FullException extends RuntimeException {
+        public FullException(String message) {
+            super(message);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Thrown when an existing file is not a log file.
+     */
+    public static class BadFormatException extends RuntimeException {
+        public BadFormatException(String message) {
+            super(message);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
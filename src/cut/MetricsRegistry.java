@@ -0,0 +1,369 @@
+package cut;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of sensors (FrequencySensor, ConcurrentFrequencySensor, RateMeter and
+ * LatencyHistogram) with hierarchical names, like "api.users.get". Sensors are weakly
+ * referenced; a sensor that is no longer used elsewhere is removed from the registry
+ * when it has been garbage collected.
+ *
+ * <p>A single background sampler thread, started with startSampler(), reads all
+ * sensors at a fixed interval and writes one line per sensor to an output stream,
+ * typically a local file or a socket, in a line protocol similar to InfluxDB's:</p>
+ *
+ * <pre>
+ * api.users.get f=12.5 1400000000000
+ * api.latency count=100,mean=1234.5,p50=1200,p90=1900,p99=2300,max=2500 1400000000000
+ * </pre>
+ *
+ * <p>The last field is the wall clock time in milliseconds. System.nanoTime() is read once
+ * per sample, not once per sensor. The whole sample is written with one write() call.
+ * If a sample takes longer than the interval, the missed samples are skipped, so
+ * the sampler never uses more than one thread's time. The duration of each sample is
+ * recorded in a histogram, see getSampleTimes(), and written as the line
+ * "metrics.sample ns=...,sensors=...".</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class MetricsRegistry {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private final LatencyHistogram sampleTimes = new LatencyHistogram(6, 1);
+    private Thread sampler;
+    private volatile IOException samplerError;
+
+    private static final class Entry extends WeakReference<Object> {
+        final String name;
+
+        Entry(String name, Object sensor, ReferenceQueue<Object> queue) {
+            super(sensor, queue);
+            this.name = name;
+        }
+    }
+
+    public MetricsRegistry() {
+    }
+
+    /**
+     * Registers a sensor.
+     *
+     * @param name  Hierarchical name, dot-separated parts of letters, digits, '_' and '-'.
+     * @throws IllegalArgumentException If the name is bad or already registered.
+     */
+    public void register(String name, FrequencySensor sensor) {
+        add(name, sensor);
+    }
+
+    /**
+     * Registers a sensor, see register(String, FrequencySensor).
+     */
+    public void register(String name, ConcurrentFrequencySensor sensor) {
+        add(name, sensor);
+    }
+
+    /**
+     * Registers a rate meter, see register(String, FrequencySensor).
+     */
+    public void register(String name, RateMeter meter) {
+        add(name, meter);
+    }
+
+    /**
+     * Registers a histogram, see register(String, FrequencySensor).
+     */
+    public void register(String name, LatencyHistogram histogram) {
+        add(name, histogram);
+    }
+
+    /**
+     * Removes a sensor.
+     *
+     * @return True if a sensor with the name was registered.
+     */
+    public boolean unregister(String name) {
+        Entry entry = entries.remove(name);
+        return entry != null && entry.get() != null;
+    }
+
+    /**
+     * Returns the sensor with the given name, or null.
+     */
+    public Object get(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.get();
+    }
+
+    /**
+     * Returns the sorted names of the sensors equal to or below prefix in the hierarchy.
+     * For example, prefix "api" matches "api" and "api.users", but not "apis".
+     * The empty prefix matches all names.
+     */
+    public List<String> names(String prefix) {
+        expunge();
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String name = e.getKey();
+            if (e.getValue().get() == null) {
+                continue;
+            }
+            if (prefix.isEmpty() || name.equals(prefix)
+                    || (name.startsWith(prefix) && name.charAt(prefix.length()) == '.')) {
+                result.add(name);
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the number of registered sensors.
+     */
+    public int size() {
+        expunge();
+        return entries.size();
+    }
+
+    /**
+     * Appends one line per sensor to a StringBuilder, in the line protocol.
+     *
+     * @param nanoTime  Current time in nano seconds, used for the sensor values.
+     * @param timeMillis  Current wall clock time, written to each line.
+     * @return The number of sensors sampled.
+     */
+    public int sample(long nanoTime, long timeMillis, StringBuilder out) {
+        expunge();
+        int count = 0;
+
+        for (Entry entry : entries.values()) {
+            Object sensor = entry.get();
+            if (sensor == null) {
+                continue;
+            }
+
+            out.append(entry.name).append(' ');
+
+            if (sensor instanceof FrequencySensor) {
+                out.append("f=").append(((FrequencySensor) sensor).getFrequency(nanoTime));
+            } else if (sensor instanceof ConcurrentFrequencySensor) {
+                out.append("f=").append(((ConcurrentFrequencySensor) sensor).getFrequency(nanoTime));
+            } else if (sensor instanceof RateMeter) {
+                RateMeter.Snapshot s = ((RateMeter) sensor).snapshot(nanoTime);
+                out.append("count=").append(s.getCount());
+                for (int i = 0; i < s.size(); i++) {
+                    out.append(",f").append(i).append('=').append(s.getRate(i));
+                }
+            } else {
+                LatencyHistogram.Snapshot s = ((LatencyHistogram) sensor).snapshot();
+                out.append("count=").append(s.getCount());
+                out.append(",mean=").append(s.getMean());
+                out.append(",p50=").append(s.getPercentile(50));
+                out.append(",p90=").append(s.getPercentile(90));
+                out.append(",p99=").append(s.getPercentile(99));
+                out.append(",max=").append(s.getMax());
+            }
+
+            out.append(' ').append(timeMillis).append('\n');
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Starts the sampler thread, writing to an output stream, for example the
+     * output stream of a socket. The stream is not closed by stopSampler().
+     *
+     * @throws IllegalStateException If the sampler is already started.
+     */
+    public void startSampler(long intervalMillis, OutputStream out) {
+        startSampler(intervalMillis, out, false);
+    }
+
+    /**
+     * Starts the sampler thread, appending to a file. The file is closed by stopSampler().
+     *
+     * @throws IllegalStateException If the sampler is already started.
+     */
+    public synchronized void startSampler(long intervalMillis, File file) throws IOException {
+        // Checked before the file is opened, so the stream cannot leak.
+        checkSamplerStart(intervalMillis);
+        startSampler(intervalMillis, new FileOutputStream(file, true), true);
+    }
+
+    /**
+     * Stops the sampler thread, if started.
+     */
+    public synchronized void stopSampler() {
+        if (sampler != null) {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+        }
+    }
+
+    /**
+     * Returns the IOException that stopped the sampler thread, or null.
+     */
+    public IOException getSamplerError() {
+        return samplerError;
+    }
+
+    /**
+     * Returns the durations of the samples made by the sampler thread, in nanoseconds.
+     */
+    public LatencyHistogram.Snapshot getSampleTimes() {
+        return sampleTimes.snapshot();
+    }
+
+    private void checkSamplerStart(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis <= 0 not allowed");
+        }
+        if (sampler != null) {
+            throw new IllegalStateException("sampler already started");
+        }
+    }
+
+    private synchronized void startSampler(final long intervalMillis, final OutputStream out,
+            final boolean close) {
+        checkSamplerStart(intervalMillis);
+
+        samplerError = null;
+        sampler = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    runSampler(intervalMillis * 1000000, out);
+                } catch (IOException e) {
+                    samplerError = e;
+                } finally {
+                    if (close) {
+                        try {
+                            out.close();
+                        } catch (IOException e) {
+                            // ignored, nothing to do
+                        }
+                    }
+                }
+            }
+        }, "MetricsRegistry-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private void runSampler(long intervalNanos, OutputStream out) throws IOException {
+        StringBuilder b = new StringBuilder();
+        byte[] bytes = new byte[256];
+        long next = System.nanoTime() + intervalNanos;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            long start = System.nanoTime();
+            long timeMillis = System.currentTimeMillis();
+            b.setLength(0);
+            int count = sample(start, timeMillis, b);
+            long duration = System.nanoTime() - start;
+            sampleTimes.record(duration);
+            b.append("metrics.sample ns=").append(duration)
+                    .append(",sensors=").append(count)
+                    .append(' ').append(timeMillis).append('\n');
+
+            if (bytes.length < b.length()) {
+                bytes = new byte[Math.max(b.length(), 2 * bytes.length)];
+            }
+            int length = b.length();
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) b.charAt(i);
+            }
+            out.write(bytes, 0, length);
+            out.flush();
+
+            // Skip missed samples.
+            next += intervalNanos;
+            long now = System.nanoTime();
+            if (next - now < 0) {
+                next = now + intervalNanos - (now - next) % intervalNanos;
+            }
+        }
+    }
+
+    private void add(String name, Object sensor) {
+        if (sensor == null) {
+            throw new IllegalArgumentException("sensor == null not allowed");
+        }
+        checkName(name);
+        expunge();
+
+        Entry entry = new Entry(name, sensor, queue);
+        while (true) {
+            Entry old = entries.putIfAbsent(name, entry);
+            if (old == null) {
+                return;
+            }
+            if (old.get() != null) {
+                throw new IllegalArgumentException("name already registered: " + name);
+            }
+            if (entries.replace(name, old, entry)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes entries of garbage collected sensors.
+     */
+    private void expunge() {
+        Entry entry;
+        while ((entry = (Entry) queue.poll()) != null) {
+            entries.remove(entry.name, entry);
+        }
+    }
+
+    private static void checkName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name == null not allowed");
+        }
+
+        boolean partStart = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.') {
+                if (partStart) {
+                    throw new IllegalArgumentException("bad name: " + name);
+                }
+                partStart = true;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-') {
+                partStart = false;
+            } else {
+                throw new IllegalArgumentException("bad name: " + name);
+            }
+        }
+
+        if (partStart) {
+            throw new IllegalArgumentException("bad name: " + name);
+        }
+    }
+}
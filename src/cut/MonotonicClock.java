@@ -0,0 +1,198 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that returns time in clock units (100 ns units since epoch, see TimeResolver).
+ * System.nanoTime() is anchored to the wall clock (System.currentTimeMillis()), so the
+ * resolution is better than one millisecond. The returned values are strictly increasing,
+ * also between threads; two calls never return the same value.
+ *
+ * <p>The anchor is checked against the wall clock at most every resyncInterval. If the
+ * wall clock and this clock differ by more than maxDrift, the clock is re-anchored.
+ * If the wall clock is set backwards, the returned values increase by one unit per
+ * call until the wall clock catches up; values never go backwards.</p>
+ *
+ * <p>coarseNow() is a cheaper alternative for hot code that tolerates millisecond
+ * staleness. It returns a value updated by a background ticker thread (a daemon) that
+ * is started by the first call to coarseNow().</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class MonotonicClock {
+    private static final long UNITS_PER_MILLISECOND = TimeResolver.UNITS_PER_MILLISECOND;
+
+    private static final MonotonicClock DEFAULT = new MonotonicClock(1000, 2);
+
+    private final long resyncIntervalNanos;
+    private final long maxDriftUnits;
+    private final AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+    private volatile Anchor anchor;
+    private volatile long coarse;
+    private Thread ticker;
+
+    /**
+     * Immutable anchor, nanoTime() at a known time in clock units.
+     */
+    private static final class Anchor {
+        final long nanos;
+        final long units;
+
+        Anchor(long nanos, long units) {
+            this.nanos = nanos;
+            this.units = units;
+        }
+    }
+
+    /**
+     * Creates a new clock.
+     *
+     * @param resyncIntervalMillis  How often, at most, the clock is compared to the wall clock.
+     * @param maxDriftMillis  Max allowed difference to the wall clock before re-anchoring.
+     */
+    public MonotonicClock(long resyncIntervalMillis, long maxDriftMillis) {
+        if (resyncIntervalMillis <= 0 || maxDriftMillis < 0) {
+            throw new IllegalArgumentException("bad resyncIntervalMillis or maxDriftMillis");
+        }
+        this.resyncIntervalNanos = resyncIntervalMillis * 1000000;
+        this.maxDriftUnits = maxDriftMillis * UNITS_PER_MILLISECOND;
+    }
+
+    /**
+     * Returns a shared clock, resynchronized every second, max drift 2 ms.
+     */
+    public static MonotonicClock getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the current time in clock units. Strictly increasing.
+     */
+    public long now() {
+        Anchor a = anchor;
+        if (a == null) {
+            a = initAnchor();
+        }
+
+        long nanos = nanoTime();
+        if (nanos - a.nanos > resyncIntervalNanos) {
+            a = resync(a, nanos);
+        }
+
+        long candidate = a.units + (nanos - a.nanos) / 100;
+
+        while (true) {
+            long prev = last.get();
+            long value = candidate > prev ? candidate : prev + 1;
+            if (last.compareAndSet(prev, value)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Returns the current time in clock units with millisecond staleness. Cheap; a volatile
+     * read. Non-decreasing. The first call starts the ticker thread.
+     */
+    public long coarseNow() {
+        long value = coarse;
+        if (value == 0) {
+            startTicker();
+            value = coarse;
+        }
+        return value;
+    }
+
+    /**
+     * Stops the ticker thread, if started. A later call to coarseNow() starts it again.
+     */
+    public synchronized void stopTicker() {
+        if (ticker != null) {
+            ticker.interrupt();
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ticker = null;
+            coarse = 0;
+        }
+    }
+
+    /**
+     * Returns System.nanoTime(). Can be overridden for testing.
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns System.currentTimeMillis(). Can be overridden for testing.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private Anchor resync(Anchor a, long nanos) {
+        long wall = currentTimeMillis() * UNITS_PER_MILLISECOND;
+        long predicted = a.units + (nanos - a.nanos) / 100;
+        Anchor newAnchor;
+
+        if (Math.abs(predicted - wall) > maxDriftUnits) {
+            newAnchor = new Anchor(nanos, wall);
+        } else {
+            // Keep the sub-millisecond precision of the old anchor.
+            newAnchor = new Anchor(nanos, predicted);
+        }
+
+        // If another thread already replaced the anchor, that is fine too.
+        anchor = newAnchor;
+        return newAnchor;
+    }
+
+    /**
+     * Anchors nanoTime() to the wall clock. Waits for the millisecond to change to
+     * get a sub-millisecond precise anchor (waits max about 1 ms).
+     */
+    private synchronized Anchor initAnchor() {
+        if (anchor != null) {
+            return anchor;
+        }
+
+        long millis = currentTimeMillis();
+        long start = nanoTime();
+        long nanos;
+        long m;
+        int count = 0;
+
+        do {
+            nanos = nanoTime();
+            m = currentTimeMillis();
+        } while (m == millis && nanos - start < 2000000 && ++count < 1000000);
+
+        anchor = new Anchor(nanos, m * UNITS_PER_MILLISECOND);
+        return anchor;
+    }
+
+    private synchronized void startTicker() {
+        if (ticker != null) {
+            return;
+        }
+
+        coarse = now();
+        ticker = new Thread(new Runnable() {
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    coarse = now();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }, "MonotonicClock-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+}
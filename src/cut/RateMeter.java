@@ -0,0 +1,260 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures event rates with several half-lives at once, for example to show both
+ * short-term and long-term load. Each rate is computed with the exponential-decay
+ * model of FrequencySensor. One tick updates all rates and the total count with
+ * a single CAS of an immutable state object; no locks are used. So a tick allocates:
+ * one rate array, reused if the CAS is retried, and one small state object per attempt.
+ *
+ * <p>The default half-lives are 1 s, 1 min, 5 min and 15 min.
+ * snapshot() returns all rates and the count as of one point in time.</p>
+ *
+ * <p>Like FrequencySensor, no clock is used internally when nanoTime arguments
+ * are given. Ticks with the same time or an earlier time than the last tick, as
+ * happens when threads race, count as simultaneous with the last tick; see
+ * ConcurrentFrequencySensor.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class RateMeter {
+    /** Default half-lives in seconds: 1 s, 1 min, 5 min, 15 min. */
+    private static final double[] DEFAULT_HALF_LIVES = {1, 60, 300, 900};
+
+    private static final double LN2 = Math.log(2.0);
+
+    /** 2^(-i/64), i = 0..64. */
+    private static final double[] EXP2_TABLE = createTable();
+
+    /** Half-lives in seconds. */
+    private final double[] halfLives;
+
+    /** 1 / (half-life in nanoseconds), per rate. */
+    private final double[] invHalfLivesNanos;
+
+    private final AtomicReference<Snapshot> state;
+
+    /**
+     * Immutable snapshot of a RateMeter: the total count and the rate values at a given time.
+     */
+    public static final class Snapshot {
+        private final double[] halfLives;
+        private final long time;
+        private final long count;
+        private final double[] rates;
+
+        Snapshot(double[] halfLives, long time, long count, double[] rates) {
+            this.halfLives = halfLives;
+            this.time = time;
+            this.count = count;
+            this.rates = rates;
+        }
+
+        /**
+         * Returns the time of the snapshot in nanoseconds.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the total number of events.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of rates.
+         */
+        public int size() {
+            return rates.length;
+        }
+
+        /**
+         * Returns a rate in events per second.
+         *
+         * @param index  Index of the half-life as given to the RateMeter constructor.
+         */
+        public double getRate(int index) {
+            return rates[index];
+        }
+
+        /**
+         * Returns the half-life of a rate in seconds.
+         */
+        public double getHalfLife(int index) {
+            return halfLives[index];
+        }
+
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append("count=").append(count);
+            for (int i = 0; i < rates.length; i++) {
+                b.append(", f").append(i).append('=').append(rates[i]);
+            }
+            return b.toString();
+        }
+    }
+
+    /**
+     * Creates a meter with the default half-lives: 1 s, 1 min, 5 min and 15 min.
+     *
+     * @param startTimeInNanos  Start time (current time) of the measurement in nano seconds.
+     */
+    public RateMeter(long startTimeInNanos) {
+        this(startTimeInNanos, DEFAULT_HALF_LIVES);
+    }
+
+    /**
+     * Creates a meter with the given half-lives.
+     *
+     * @param startTimeInNanos  Start time (current time) of the measurement in nano seconds.
+     * @param halfLivesInSeconds  Half-lives in seconds, one or more, each &gt; 0.
+     */
+    public RateMeter(long startTimeInNanos, double... halfLivesInSeconds) {
+        if (halfLivesInSeconds == null || halfLivesInSeconds.length == 0) {
+            throw new IllegalArgumentException("at least one half-life needed");
+        }
+
+        this.halfLives = halfLivesInSeconds.clone();
+        this.invHalfLivesNanos = new double[halfLives.length];
+        for (int i = 0; i < halfLives.length; i++) {
+            if (!(halfLives[i] > 0.0)) {
+                throw new IllegalArgumentException("bad half-life: " + halfLives[i]);
+            }
+            invHalfLivesNanos[i] = 1e-9 / halfLives[i];
+        }
+
+        this.state = new AtomicReference<Snapshot>(
+                new Snapshot(halfLives, startTimeInNanos, 0, new double[halfLives.length]));
+    }
+
+    /**
+     * Call this every time an event occurs.
+     */
+    public void tick() {
+        tick(System.nanoTime(), 1);
+    }
+
+    /**
+     * Call this every time an event occurs.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public void tick(long nanoTime) {
+        tick(nanoTime, 1);
+    }
+
+    /**
+     * Reports count events at once. The events are assumed to be evenly spread since
+     * the last tick.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param count  Number of events, zero or more.
+     */
+    public void tick(long nanoTime, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0 not allowed");
+        }
+
+        double[] newRates = new double[halfLives.length];
+
+        while (true) {
+            Snapshot s = state.get();
+            long diff = nanoTime - s.time;
+            long newTime = s.time;
+
+            if (diff <= 0) {
+                for (int i = 0; i < newRates.length; i++) {
+                    newRates[i] = s.rates[i] + count * LN2 / halfLives[i];
+                }
+            } else {
+                newTime = nanoTime;
+                double fEstimate = count / (1e-9 * diff);
+                for (int i = 0; i < newRates.length; i++) {
+                    double decayFactor = exp2Negative(diff * invHalfLivesNanos[i]);
+                    newRates[i] = decayFactor * s.rates[i] + (1.0 - decayFactor) * fEstimate;
+                }
+            }
+
+            Snapshot newState = new Snapshot(halfLives, newTime, s.count + count, newRates);
+            if (state.compareAndSet(s, newState)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the total number of events.
+     */
+    public long getCount() {
+        return state.get().count;
+    }
+
+    /**
+     * Returns a rate in events per second.
+     *
+     * @param index  Index of the half-life as given to the constructor.
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public double getRate(int index, long nanoTime) {
+        Snapshot s = state.get();
+        return s.rates[index] * decayFactor(index, nanoTime - s.time);
+    }
+
+    /**
+     * Returns all rates and the total count, consistent with each other.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public Snapshot snapshot(long nanoTime) {
+        Snapshot s = state.get();
+        double[] rates = new double[s.rates.length];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = s.rates[i] * decayFactor(i, nanoTime - s.time);
+        }
+        return new Snapshot(halfLives, nanoTime, s.count, rates);
+    }
+
+    public String toString() {
+        return snapshot(System.nanoTime()).toString();
+    }
+
+    private double decayFactor(int index, long diff) {
+        return exp2Negative(Math.abs(diff) * invHalfLivesNanos[index]);
+    }
+
+    /**
+     * Returns 2^(-x) for x &gt;= 0 without calling Math.pow().
+     * Relative error less than 1e-12. Same as in ConcurrentFrequencySensor.
+     */
+    private static double exp2Negative(double x) {
+        if (!(x < 1000.0)) {
+            return 0.0;    // also for NaN
+        }
+
+        // x = n + i/64 + r, 0 <= r < 1/64.
+
+        double scaled = x * 64.0;
+        long k = (long) scaled;
+        int n = (int) (k >>> 6);
+        int i = (int) (k & 63);
+        double y = (scaled - k) * (LN2 / 64.0);
+
+        // e^-y, 0 <= y < 0.011
+        double e = 1.0 - y * (1.0 - y * (0.5 - y * (1.0 / 6 - y * (1.0 / 24 - y * (1.0 / 120)))));
+
+        return Math.scalb(EXP2_TABLE[i] * e, -n);
+    }
+
+    private static double[] createTable() {
+        double[] table = new double[65];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = Math.pow(2.0, -i / 64.0);
+        }
+        return table;
+    }
+}
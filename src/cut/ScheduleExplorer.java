@@ -0,0 +1,528 @@
+package cut;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs a scenario, a few TestableThreads, under many different interleavings of their
+ * break points, to find races. Break points are inserted in the tested code as
+ * for TestableThread:
+ *
+ * <pre>
+ * assert TestableThread.breakpoint("counter:read");
+ * </pre>
+ *
+ * <p>Only one thread runs at a time. A step is what a thread does from one break
+ * point (or its start) to the next break point (or its end). A schedule is the
+ * sequence of threads chosen to do a step. exploreAll() searches all schedules, depth
+ * first; exploreRandom() samples schedules with a seeded java.util.Random. The search
+ * stops at the first failure: an exception thrown by a thread or by Scenario.check().
+ * The Result tells the failing schedule; replay() runs it again.</p>
+ *
+ * <p>Partial-order reduction: a break point name of the form "resource:label" declares
+ * that the step after the break point only accesses shared state called "resource".
+ * Steps of different resources are independent, and schedules that only differ in the
+ * order of independent steps are explored once (sleep sets). Names without ':' and
+ * thread starts are dependent with all steps.</p>
+ *
+ * <p>The code between break points must not wait for other threads of the scenario; the
+ * other threads are paused. A step that does not end within the step timeout is reported
+ * as a failure (likely a deadlock). Assertions must be enabled (-ea) for the break
+ * points to be reached.</p>
+ */
+public class ScheduleExplorer {
+    private static final String START = "<start>";
+
+    private final long stepTimeoutMillis;
+
+    /**
+     * A test scenario. setUp() is called before each schedule and check() after it.
+     */
+    public interface Scenario {
+        /**
+         * Creates fresh shared state and returns the code of the threads.
+         */
+        Runnable[] setUp();
+
+        /**
+         * Checks the shared state after all threads have ended. Throws an exception,
+         * typically an AssertionError, if the state is wrong.
+         */
+        void check();
+    }
+
+    /**
+     * The result of an exploration.
+     */
+    public static final class Result {
+        private final int schedules;
+        private final boolean complete;
+        private final Throwable failure;
+        private final int[] schedule;
+        private final String[] steps;
+
+        Result(int schedules, boolean complete, Throwable failure, int[] schedule, String[] steps) {
+            this.schedules = schedules;
+            this.complete = complete;
+            this.failure = failure;
+            this.schedule = schedule;
+            this.steps = steps;
+        }
+
+        /**
+         * Returns the number of schedules run.
+         */
+        public int getSchedules() {
+            return schedules;
+        }
+
+        /**
+         * Returns true if all schedules (up to partial-order reduction) were explored
+         * without failure.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public boolean isFailed() {
+            return failure != null;
+        }
+
+        /**
+         * Returns the failure, or null.
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * Returns the failing schedule, the thread index of each step, or null.
+         * Can be given to replay().
+         */
+        public int[] getSchedule() {
+            return schedule == null ? null : schedule.clone();
+        }
+
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append("schedules=").append(schedules).append(", complete=").append(complete);
+            if (failure != null) {
+                b.append(", failure=").append(failure);
+                b.append("\nschedule:");
+                for (String step : steps) {
+                    b.append("\n  ").append(step);
+                }
+            }
+            return b.toString();
+        }
+    }
+
+    public ScheduleExplorer() {
+        this(10000);
+    }
+
+    /**
+     * @param stepTimeoutMillis  Max time for a step.
+     */
+    public ScheduleExplorer(long stepTimeoutMillis) {
+        if (stepTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("stepTimeoutMillis <= 0 not allowed");
+        }
+        this.stepTimeoutMillis = stepTimeoutMillis;
+    }
+
+    /**
+     * Explores all schedules of a scenario, depth first, with partial-order reduction.
+     *
+     * @param maxSchedules  Max number of schedules to run.
+     */
+    public Result exploreAll(Scenario scenario, int maxSchedules) {
+        final List<Frame> stack = new ArrayList<Frame>();
+        int schedules = 0;
+
+        while (schedules < maxSchedules) {
+            Outcome outcome = runSchedule(scenario, new Chooser() {
+                public int choose(int depth, int[] enabled, String[] pausedAt) {
+                    if (depth < stack.size()) {
+                        Frame frame = stack.get(depth);
+                        if (!contains(enabled, frame.chosen)) {
+                            throw new IllegalStateException("scenario is not deterministic");
+                        }
+                        return frame.chosen;
+                    }
+
+                    Frame frame = new Frame(enabled, pausedAt);
+                    if (depth > 0) {
+                        Frame parent = stack.get(depth - 1);
+                        Set<Integer> candidates = new HashSet<Integer>(parent.sleep);
+                        candidates.addAll(parent.done);
+                        String chosenResource = parent.resource(parent.chosen);
+                        for (int u : candidates) {
+                            if (independent(parent.resource(u), chosenResource)) {
+                                frame.sleep.add(u);
+                            }
+                        }
+                    }
+
+                    int choice = frame.next();
+                    if (choice < 0) {
+                        return -1;    // all enabled threads sleep, a redundant schedule
+                    }
+                    frame.chosen = choice;
+                    stack.add(frame);
+                    return choice;
+                }
+            });
+            schedules++;
+
+            if (outcome.failure != null) {
+                return new Result(schedules, false, outcome.failure, outcome.schedule, outcome.steps);
+            }
+
+            while (!stack.isEmpty()) {
+                Frame top = stack.get(stack.size() - 1);
+                top.done.add(top.chosen);
+                int next = top.next();
+                if (next >= 0) {
+                    top.chosen = next;
+                    break;
+                }
+                stack.remove(stack.size() - 1);
+            }
+
+            if (stack.isEmpty()) {
+                return new Result(schedules, true, null, null, null);
+            }
+        }
+
+        return new Result(schedules, false, null, null, null);
+    }
+
+    /**
+     * Runs randomly chosen schedules of a scenario.
+     *
+     * @param seed  Seed of the random generator; the same seed gives the same schedules.
+     * @param count  Number of schedules to run.
+     */
+    public Result exploreRandom(Scenario scenario, long seed, int count) {
+        final Random random = new Random(seed);
+
+        for (int i = 0; i < count; i++) {
+            Outcome outcome = runSchedule(scenario, new Chooser() {
+                public int choose(int depth, int[] enabled, String[] pausedAt) {
+                    return enabled[random.nextInt(enabled.length)];
+                }
+            });
+
+            if (outcome.failure != null) {
+                return new Result(i + 1, false, outcome.failure, outcome.schedule, outcome.steps);
+            }
+        }
+
+        return new Result(count, false, null, null, null);
+    }
+
+    /**
+     * Runs one given schedule, typically a failing schedule from a Result.
+     * After the schedule, remaining steps are run in thread order.
+     */
+    public Result replay(Scenario scenario, final int[] schedule) {
+        Outcome outcome = runSchedule(scenario, new Chooser() {
+            public int choose(int depth, int[] enabled, String[] pausedAt) {
+                if (depth >= schedule.length) {
+                    return enabled[0];
+                }
+                if (!contains(enabled, schedule[depth])) {
+                    throw new IllegalStateException("thread " + schedule[depth]
+                            + " not enabled at step " + depth);
+                }
+                return schedule[depth];
+            }
+        });
+
+        return new Result(1, false, outcome.failure, outcome.schedule, outcome.steps);
+    }
+
+    private interface Chooser {
+        /**
+         * Returns the thread to run, or -1 to run the rest in any order and skip the check.
+         */
+        int choose(int depth, int[] enabled, String[] pausedAt);
+    }
+
+    private static final class Outcome {
+        Throwable failure;
+        int[] schedule;
+        String[] steps;
+    }
+
+    /**
+     * A choice point of exploreAll().
+     */
+    private static final class Frame {
+        final int[] enabled;
+        final String[] pausedAt;
+        final Set<Integer> sleep = new HashSet<Integer>();
+        final Set<Integer> done = new HashSet<Integer>();
+        int chosen;
+
+        Frame(int[] enabled, String[] pausedAt) {
+            this.enabled = enabled;
+            this.pausedAt = pausedAt;
+        }
+
+        int next() {
+            for (int t : enabled) {
+                if (!sleep.contains(t) && !done.contains(t)) {
+                    return t;
+                }
+            }
+            return -1;
+        }
+
+        String resource(int thread) {
+            return ScheduleExplorer.resource(pausedAt[thread]);
+        }
+    }
+
+    private Outcome runSchedule(Scenario scenario, Chooser chooser) {
+        Runnable[] runnables = scenario.setUp();
+        Run run = new Run(runnables);
+        List<Integer> schedule = new ArrayList<Integer>();
+        List<String> steps = new ArrayList<String>();
+        Outcome outcome = new Outcome();
+        boolean redundant = false;
+
+        try {
+            while (true) {
+                int[] enabled = run.enabled();
+                if (enabled.length == 0) {
+                    break;
+                }
+
+                int choice = redundant ? enabled[0]
+                        : chooser.choose(schedule.size(), enabled, run.pausedAt());
+                if (choice < 0) {
+                    redundant = true;
+                    continue;
+                }
+
+                if (!redundant) {
+                    schedule.add(choice);
+                    steps.add("T" + choice + "@" + run.slots[choice].pausedAt);
+                }
+
+                if (!run.step(choice, stepTimeoutMillis)) {
+                    run.abort();
+                    outcome.failure = new IllegalStateException("step timeout, T" + choice
+                            + " did not reach a break point within " + stepTimeoutMillis
+                            + " ms, deadlock?");
+                    break;
+                }
+            }
+
+            if (outcome.failure == null) {
+                outcome.failure = run.error();
+            }
+            if (outcome.failure == null && !redundant) {
+                try {
+                    scenario.check();
+                } catch (Throwable e) {
+                    outcome.failure = e;
+                }
+            }
+        } catch (RuntimeException e) {
+            run.abort();
+            throw e;
+        }
+
+        outcome.schedule = new int[schedule.size()];
+        for (int i = 0; i < outcome.schedule.length; i++) {
+            outcome.schedule[i] = schedule.get(i);
+        }
+        outcome.steps = steps.toArray(new String[steps.size()]);
+        return outcome;
+    }
+
+    /**
+     * Returns the resource of a break point name, or null if dependent with all.
+     */
+    static String resource(String breakName) {
+        if (breakName == null || breakName.equals(START)) {
+            return null;
+        }
+        int index = breakName.indexOf(':');
+        return index <= 0 ? null : breakName.substring(0, index);
+    }
+
+    static boolean independent(String resource1, String resource2) {
+        return resource1 != null && resource2 != null && !resource1.equals(resource2);
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int a : array) {
+            if (a == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The threads of one schedule. Used by TestableThread.breakpoint().
+     */
+    static final class Run {
+        private final Object lock = new Object();
+        final Slot[] slots;
+        private boolean aborted;
+
+        Run(Runnable[] runnables) {
+            slots = new Slot[runnables.length];
+            for (int i = 0; i < runnables.length; i++) {
+                slots[i] = new Slot(this, i, runnables[i]);
+            }
+        }
+
+        int[] enabled() {
+            synchronized (lock) {
+                int n = 0;
+                for (Slot slot : slots) {
+                    if (!slot.done) {
+                        n++;
+                    }
+                }
+                int[] result = new int[n];
+                n = 0;
+                for (int i = 0; i < slots.length; i++) {
+                    if (!slots[i].done) {
+                        result[n++] = i;
+                    }
+                }
+                return result;
+            }
+        }
+
+        String[] pausedAt() {
+            synchronized (lock) {
+                String[] result = new String[slots.length];
+                for (int i = 0; i < slots.length; i++) {
+                    result[i] = slots[i].pausedAt;
+                }
+                return result;
+            }
+        }
+
+        /**
+         * Lets a thread run to its next break point or end.
+         *
+         * @return false on timeout.
+         */
+        boolean step(int index, long timeoutMillis) {
+            Slot slot = slots[index];
+            synchronized (lock) {
+                slot.running = true;
+                if (slot.thread.getState() == Thread.State.NEW) {
+                    slot.thread.start();
+                } else {
+                    lock.notifyAll();
+                }
+
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (slot.running) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        throw new Error("not expected: " + e);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Called by a thread at a break point; waits until the thread is chosen again.
+         */
+        void pause(TestableThread thread, String breakName) {
+            Slot slot = slots[thread.runIndex];
+            synchronized (lock) {
+                if (aborted) {
+                    return;
+                }
+                slot.pausedAt = breakName;
+                slot.running = false;
+                lock.notifyAll();
+                while (!slot.running && !aborted) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        throw new Error("not expected: " + e);
+                    }
+                }
+            }
+        }
+
+        void finished(Slot slot, Throwable error) {
+            synchronized (lock) {
+                slot.error = error;
+                slot.done = true;
+                slot.running = false;
+                lock.notifyAll();
+            }
+        }
+
+        /**
+         * Lets all threads run freely.
+         */
+        void abort() {
+            synchronized (lock) {
+                aborted = true;
+                lock.notifyAll();
+            }
+        }
+
+        Throwable error() {
+            synchronized (lock) {
+                for (Slot slot : slots) {
+                    if (slot.error != null) {
+                        return slot.error;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    private static final class Slot {
+        final TestableThread thread;
+        String pausedAt = START;
+        boolean running;
+        boolean done;
+        Throwable error;
+
+        Slot(final Run run, int index, final Runnable runnable) {
+            thread = new TestableThread(new Runnable() {
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        runnable.run();
+                    } catch (Throwable e) {
+                        error = e;
+                    } finally {
+                        run.finished(Slot.this, error);
+                    }
+                }
+            });
+            thread.run = run;
+            thread.runIndex = index;
+            thread.setDaemon(true);
+            thread.setName("ScheduleExplorer-T" + index);
+        }
+    }
+}
@@ -1,15 +1,15 @@
 package cut;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.lang.management.ClassLoadingMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This class is able to generate random data (not evenly distributed) with
@@ -17,83 +17,283 @@ import java.util.Set;
  * for creating this class is that /dev/random on some Linux systems may not 
  * generate new random data fast enough and block seeding for SecureRandom and Random classes.
  * 
+ * <p>The data is absorbed into a SHA-256 state (the pool), 32 bits at a time, without
+ * creating objects per value. A seed is produced by hashing the pool: four
+ * SHA-256 hashes of the absorbed data followed by a block counter.</p>
+ * 
+ * <p>Optionally, a background daemon thread, see startDaemon(), keeps adding entropy
+ * to the pool (timing jitter, JMX, runtime data and stack traces) and keeps a few seeds
+ * ready. getSeed() then takes a ready seed without locking; each seed is returned
+ * once only. When no seed is ready, getSeed() computes one as without the daemon.
+ * The slow entropy sources are read without holding the lock; the lock is only held
+ * to absorb the collected data, a few blocks at a time, and to compute a seed.
+ * So getSeed() never waits long for the daemon.</p>
+ * 
  * @author Frans Lundberg
  */
 public class SeedGenerator {
     // Note, the actual amount of entropy generated has not been studied.
     //
     
-    private byte[] seed;
-    private int offset;
+    private static final int[] K = {
+        0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+        0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+        0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+        0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+        0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+        0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+        0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+        0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2};
+
+    private static final int[] INITIAL_STATE = {
+        0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19};
+
+    /** Size of a seed in bytes. */
+    private static final int SEED_SIZE = 128;
+
+    /** Number of seeds the daemon keeps ready. */
+    private static final int READY_SEEDS = 16;
+
+    /** Max number of words absorbed per lock hold, four SHA-256 blocks. */
+    private static final int ABSORB_CHUNK = 64;
+
+    /** SHA-256 state of the pool. */
+    private final int[] state = INITIAL_STATE.clone();
+
+    /** Current block, 16 words, and room for the message schedule. */
+    private final int[] block = new int[64];
+
+    /** Number of words in the current block. */
+    private int blockWords;
+
+    /** Total number of words absorbed. */
+    private long words;
+
+    /** Number of seeds produced. */
+    private long seedCount;
+
+    private final int[] outState = new int[8];
+    private final int[] outBlock = new int[64];
+
+    /** Seeds made by the daemon, null for taken ones. */
+    private final AtomicReferenceArray<byte[]> ready = new AtomicReferenceArray<byte[]>(READY_SEEDS);
+
+    /** The daemon thread, or null. */
+    private volatile Thread daemon;
 
     /**
      * Initializes seed generator with some entropy based on current time, JMX data, 
      * JVM memory available and so forth.
      */
     public SeedGenerator() {
-        seed = new byte[128];
-        addTimeData();
-        addMachineData();
-        addRandomOffset();
-        addRuntimeData();
-        addTimeData();
-        addRandomOffset();
-        addJmxData();
-        addRuntimeData();
-        addTimeData();
-        addRuntimeData();
-        addTimeData();
+        Words w = new Words();
+        addTimeData(w);
+        addMachineData(w);
+        addRuntimeData(w);
+        addTimeData(w);
+        addJmxData(w);
+        addRuntimeData(w);
+        addTimeData(w);
+        addRuntimeData(w);
+        addTimeData(w);
+        absorb(w);
+    }
+
+    /**
+     * Lazily created shared instance.
+     */
+    private static class DefaultHolder {
+        static final SeedGenerator INSTANCE = new SeedGenerator();
+    }
+
+    /**
+     * Returns a shared seed generator, created on first use.
+     */
+    public static SeedGenerator getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a seed generator with an empty pool, for testing.
+     */
+    SeedGenerator(boolean empty) {
     }
     
     /**
      * Slower than constructor, but generates more entropy.
      */
-    public synchronized void moreEntropy() {
-        addTimeData();
-        addRandomOffset();
-        addRuntimeData();
-        addJmxData();
-        
-        addTimeData();
-        addRandomOffset();
-        addRuntimeData();
-        addJmxData();
-        
-        addTimeData();
-        addRuntimeData();
-        addStackTrace();
-        addTimeData();
+    public void moreEntropy() {
+        Words w = new Words();
+        addMoreData(w);
+        absorb(w);
     }
 
     /**
-     * Adds some entropy and returns a copy of the current seed data (128 byte array).
+     * Returns a new seed (128 byte array). If the daemon is running, a seed made
+     * by the daemon is returned if one is ready, otherwise some entropy is added and
+     * a seed is computed.
      */
-    public synchronized byte[] getSeed() {
-        addTimeData();
-        addRandomOffset();
-        return (byte[]) seed.clone();
+    public byte[] getSeed() {
+        for (int i = 0; i < READY_SEEDS; i++) {
+            if (ready.get(i) != null) {
+                byte[] seed = ready.getAndSet(i, null);
+                if (seed != null) {
+                    Thread d = daemon;
+                    if (d != null) {
+                        LockSupport.unpark(d);
+                    }
+                    return seed;
+                }
+            }
+        }
+
+        return newSeed();
     }
 
     /**
-     * Adds data based on system clock and system counter.
+     * Starts a background daemon thread with minimum priority that adds entropy to the pool
+     * every intervalMillis and keeps seeds ready for getSeed(). Does nothing if the daemon
+     * is already started.
+     */
+    public synchronized void startDaemon(final long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis <= 0 not allowed");
+        }
+        if (daemon != null) {
+            return;
+        }
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                runDaemon(intervalMillis * 1000000);
+            }
+        }, "SeedGenerator-daemon");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        daemon = t;
+        t.start();
+    }
+
+    /**
+     * Stops the daemon thread, if started. Seeds already made are still used by getSeed().
      */
-    private void addTimeData() {
+    public void stopDaemon() {
+        Thread t;
+        synchronized (this) {
+            t = daemon;
+            daemon = null;
+        }
+
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized byte[] newSeed() {
         addData(System.nanoTime());
         addData(System.currentTimeMillis());
         addData(System.nanoTime());
+        byte[] seed = new byte[SEED_SIZE];
+        output(seed, 0);
+        return seed;
+    }
+
+    private void runDaemon(long intervalNanos) {
+        Words w = new Words();
+        long nextRefresh = System.nanoTime();
+
+        while (!Thread.currentThread().isInterrupted()) {
+            if (System.nanoTime() - nextRefresh >= 0) {
+                addJitterData(w);
+                addMoreData(w);
+                absorb(w);
+                nextRefresh = System.nanoTime() + intervalNanos;
+            }
+
+            // Only this thread fills the slots.
+            for (int i = 0; i < READY_SEEDS; i++) {
+                if (ready.get(i) == null) {
+                    ready.set(i, newSeed());
+                }
+            }
+
+            LockSupport.parkNanos(this, nextRefresh - System.nanoTime());
+        }
+    }
+
+    /**
+     * Absorbs the collected words into the pool and clears w. The lock is taken
+     * for ABSORB_CHUNK words at a time.
+     */
+    private void absorb(Words w) {
+        for (int i = 0; i < w.size; i += ABSORB_CHUNK) {
+            int end = Math.min(w.size, i + ABSORB_CHUNK);
+            synchronized (this) {
+                for (int j = i; j < end; j++) {
+                    absorb(w.data[j]);
+                }
+            }
+        }
+        w.size = 0;
+    }
+
+    /**
+     * Adds the data of moreEntropy().
+     */
+    private static void addMoreData(Words w) {
+        addTimeData(w);
+        addRuntimeData(w);
+        addJmxData(w);
+        
+        addTimeData(w);
+        addRuntimeData(w);
+        addJmxData(w);
+        
+        addTimeData(w);
+        addRuntimeData(w);
+        addStackTrace(w);
+        addTimeData(w);
+    }
+
+    /**
+     * Adds data based on timing jitter: the time it takes to yield the processor
+     * varies with the scheduling of other threads.
+     */
+    private static void addJitterData(Words w) {
+        long prev = System.nanoTime();
+        for (int i = 0; i < 32; i++) {
+            Thread.yield();
+            long now = System.nanoTime();
+            w.add((int) (now - prev));
+            prev = now;
+        }
+    }
+
+    /**
+     * Adds data based on system clock and system counter.
+     */
+    private static void addTimeData(Words w) {
+        w.add(System.nanoTime());
+        w.add(System.currentTimeMillis());
+        w.add(System.nanoTime());
     }
     
     /**
      * Adds data from Runtime state.
      */
-    private void addRuntimeData() {
+    private static void addRuntimeData(Words w) {
         Runtime rt = Runtime.getRuntime();
-        addData(rt.freeMemory());
-        addData(rt.maxMemory());
-        addData(rt.totalMemory());
+        w.add(rt.freeMemory());
+        w.add(rt.maxMemory());
+        w.add(rt.totalMemory());
     }
 
-    private void addStackTrace() {
+    private static void addStackTrace(Words w) {
         // The strange try-clause is needed for it to work with IKVM.
         
         Map<Thread, StackTraceElement[]> traces = null;
@@ -113,16 +313,16 @@ public class SeedGenerator {
         
         Set<Thread> threads = traces.keySet();
         
-        addData(threads.size());
+        w.add(threads.size());
         
         for (Thread t : threads) {
             StackTraceElement[] elements = traces.get(t);
-            addData(elements.length);
+            w.add(elements.length);
             
             for (StackTraceElement element : elements) {
-                addData(element.getLineNumber());
-                addData(element.getMethodName());
-                addData(element.getFileName());
+                w.add(element.getLineNumber());
+                w.add(element.getMethodName());
+                w.add(element.getFileName());
             }
         }
     }
@@ -130,32 +330,21 @@ public class SeedGenerator {
     /**
      * Adds data specific to this machine.
      */
-    private void addMachineData() {
-        ByteArrayOutputStream bout;
-        DataOutputStream out;
-        Enumeration<Object> keys;
-
-        bout = new ByteArrayOutputStream();
-        out = new DataOutputStream(bout);
-
-        try {
-            Properties p = System.getProperties();
-            keys = p.keys();
-            while (keys.hasMoreElements()) {
-                out.writeUTF(p.getProperty((String) keys.nextElement()));
+    private static void addMachineData(Words w) {
+        Properties p = System.getProperties();
+        Enumeration<Object> keys = p.keys();
+        while (keys.hasMoreElements()) {
+            Object key = keys.nextElement();
+            if (key instanceof String) {
+                w.add(p.getProperty((String) key));
             }
-            out.close();
-        } catch (IOException e) {
-            throw new Error("neven happens, writing to memory");
         }
-
-        addData(bout.toByteArray());
     }
     
     /**
      * Adds data from a JMX - java management extension objects.
      */
-    private void addJmxData() {
+    private static void addJmxData(Words w) {
         ClassLoadingMXBean clBean;
         ThreadMXBean tBean;
         long[] ids;
@@ -163,59 +352,157 @@ public class SeedGenerator {
         clBean = ManagementFactory.getClassLoadingMXBean();
         tBean = ManagementFactory.getThreadMXBean();
 
-        addData(clBean.getTotalLoadedClassCount());
-        addData(clBean.getUnloadedClassCount());
-        addData(clBean.getLoadedClassCount());
+        w.add(clBean.getTotalLoadedClassCount());
+        w.add(clBean.getUnloadedClassCount());
+        w.add(clBean.getLoadedClassCount());
 
-        addData(tBean.getCurrentThreadCpuTime());
-        addData(tBean.getCurrentThreadUserTime());
-        addData(tBean.getTotalStartedThreadCount());
-        addData(tBean.getDaemonThreadCount());
-        addData(tBean.getPeakThreadCount());
-        addData(tBean.getThreadCount());
-        addRandomOffset();
+        w.add(tBean.getCurrentThreadCpuTime());
+        w.add(tBean.getCurrentThreadUserTime());
+        w.add(tBean.getTotalStartedThreadCount());
+        w.add(tBean.getDaemonThreadCount());
+        w.add(tBean.getPeakThreadCount());
+        w.add(tBean.getThreadCount());
 
         ids = tBean.getAllThreadIds();
         for (int i = 0; i < ids.length; i++) {
-            addData(ids[i]);
+            w.add(ids[i]);
         }
     }
     
-    private void addData(String s) {
-        // 123456 is completely arbitrary.
-        
-        if (s == null) {
-            addData(123456);
-        } else {
-            for (int i = 0; i < s.length(); i++) {
-                addData(s.charAt(i));
-            }
+    /**
+     * Adds a value to the pool. Package-private for testing.
+     */
+    void addData(long value) {
+        absorb((int) (value >>> 32));
+        absorb((int) value);
+    }
+
+    /**
+     * Adds a 32-bit word to the pool.
+     */
+    private void absorb(int word) {
+        block[blockWords++] = word;
+        words++;
+        if (blockWords == 16) {
+            compress(state, block);
+            blockWords = 0;
         }
     }
 
-    private void addData(byte[] bytes) {
-        for (int i = 0; i < bytes.length; i++) {
-            seed[offset] += bytes[i];
-            offset++;
-            if (offset >= seed.length) {
-                offset = 0;
+    /**
+     * Writes a seed, SEED_SIZE bytes, to dest. Seed block j is the SHA-256 hash
+     * of all absorbed data (32-bit words, big-endian) followed by j as a 32-bit word.
+     * Afterwards, the seed count is absorbed, so the next seed differs.
+     * Package-private for testing.
+     */
+    void output(byte[] dest, int offset) {
+        long bits = (words + 1) * 32;
+
+        for (int j = 0; j < SEED_SIZE / 32; j++) {
+            System.arraycopy(state, 0, outState, 0, 8);
+            System.arraycopy(block, 0, outBlock, 0, blockWords);
+
+            int n = blockWords;
+            outBlock[n++] = j;
+            outBlock[n++] = 0x80000000;
+            if (n > 14) {
+                while (n < 16) {
+                    outBlock[n++] = 0;
+                }
+                compress(outState, outBlock);
+                n = 0;
+            }
+            while (n < 14) {
+                outBlock[n++] = 0;
+            }
+            outBlock[14] = (int) (bits >>> 32);
+            outBlock[15] = (int) bits;
+            compress(outState, outBlock);
+
+            for (int i = 0; i < 8; i++) {
+                Bytes.intToBytesBE(outState[i], dest, offset + 32 * j + 4 * i);
             }
         }
+
+        addData(++seedCount);
     }
 
-    private void addData(long value) {
-        byte[] bytes = new byte[8];
-        Bytes.longToBytesBE(value, bytes, 0);
-        addData(bytes);
+    /**
+     * Words collected from the entropy sources, absorbed into the pool later.
+     */
+    private static final class Words {
+        int[] data = new int[256];
+        int size;
+
+        void add(int word) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2 * size);
+            }
+            data[size++] = word;
+        }
+
+        void add(long value) {
+            add((int) (value >>> 32));
+            add((int) value);
+        }
+
+        void add(String s) {
+            // 123456 is completely arbitrary.
+            
+            if (s == null) {
+                add(123456L);
+            } else {
+                int length = s.length();
+                add(length);
+                for (int i = 0; i + 1 < length; i += 2) {
+                    add((s.charAt(i) << 16) | s.charAt(i + 1));
+                }
+                if ((length & 1) != 0) {
+                    add((int) s.charAt(length - 1));
+                }
+            }
+        }
     }
 
     /**
-     * Just to avoid not writing much to certain offsets.
+     * SHA-256 compression function. The first 16 words of w is the block; w must
+     * have length 64, the rest is used for the message schedule.
      */
-    private void addRandomOffset() {
-        offset = offset + (int) (Math.random() * 8.0);
-        if (offset >= seed.length) {
-            offset = offset % seed.length;
+    private static void compress(int[] h, int[] w) {
+        for (int i = 16; i < 64; i++) {
+            int w15 = w[i - 15];
+            int w2 = w[i - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
         }
+
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = hh + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
     }
 }
@@ -0,0 +1,143 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in a sliding time window, exactly, with the resolution of a bucket
+ * interval. Unlike FrequencySensor, old events are forgotten completely: getCount()
+ * returns the number of events in the last n buckets, the current bucket included.
+ *
+ * <p>The counter is a fixed ring of buckets. Each bucket is one long: the lap of the
+ * ring (32 bits) and the count (32 bits), updated with CAS, so increments are lock-free
+ * and never lost. Buckets are rotated lazily: an increment to a bucket with an old lap
+ * resets it. No thread is used; like FrequencySensor, time is given by the caller
+ * in nanoseconds. Reads are O(buckets) and allocate nothing.</p>
+ *
+ * <p>Limits: a bucket counts at most 2^32 - 1 events (more are ignored); increments
+ * with a time older than the window or before the start time are ignored; a bucket that is not touched for
+ * 2^32 laps of the ring may be misread.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class SlidingWindowCounter {
+    private static final long COUNT_MASK = 0xffffffffL;
+
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final long startTime;
+    private final AtomicLongArray buckets;
+
+    /**
+     * Creates a counter.
+     *
+     * @param bucketNanos  Length of a bucket interval in nanoseconds, &gt; 0.
+     * @param bucketCount  Number of buckets, &gt;= 1. The window is bucketNanos * bucketCount.
+     * @param startTimeInNanos  Current time in nano seconds.
+     */
+    public SlidingWindowCounter(long bucketNanos, int bucketCount, long startTimeInNanos) {
+        if (bucketNanos <= 0) {
+            throw new IllegalArgumentException("bucketNanos <= 0 not allowed");
+        }
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount < 1 not allowed");
+        }
+        this.bucketNanos = bucketNanos;
+        this.bucketCount = bucketCount;
+        this.startTime = startTimeInNanos;
+        this.buckets = new AtomicLongArray(bucketCount);
+    }
+
+    /**
+     * Counts one event.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public void increment(long nanoTime) {
+        add(nanoTime, 1);
+    }
+
+    /**
+     * Counts a number of events.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param count  Number of events, &gt;= 0.
+     */
+    public void add(long nanoTime, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0 not allowed");
+        }
+
+        long epoch = Math.floorDiv(nanoTime - startTime, bucketNanos);
+        int index = (int) Math.floorMod(epoch, (long) bucketCount);
+        long lap = Math.floorDiv(epoch, bucketCount) & COUNT_MASK;
+
+        while (true) {
+            long value = buckets.get(index);
+            long bucketLap = value >>> 32;
+            long newValue;
+
+            if (bucketLap == lap) {
+                long sum = (value & COUNT_MASK) + count;
+                newValue = (lap << 32) | (sum < COUNT_MASK ? sum : COUNT_MASK);
+            } else if ((int) (lap - bucketLap) > 0) {
+                newValue = (lap << 32) | (count < COUNT_MASK ? count : COUNT_MASK);
+            } else {
+                return;    // older than the window
+            }
+
+            if (value == newValue || buckets.compareAndSet(index, value, newValue)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events in the whole window, the last bucketCount buckets.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public long getCount(long nanoTime) {
+        return getCount(nanoTime, bucketCount);
+    }
+
+    /**
+     * Returns the number of events in the last n buckets, the current bucket included.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param n  Number of buckets, 1 - bucketCount.
+     */
+    public long getCount(long nanoTime, int n) {
+        if (n < 1 || n > bucketCount) {
+            throw new IllegalArgumentException("bad n: " + n);
+        }
+
+        long epoch = Math.floorDiv(nanoTime - startTime, bucketNanos);
+        long sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            long e = epoch - i;
+            int index = (int) Math.floorMod(e, (long) bucketCount);
+            long lap = Math.floorDiv(e, bucketCount) & COUNT_MASK;
+            long value = buckets.get(index);
+            if (value >>> 32 == lap) {
+                sum += value & COUNT_MASK;
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Returns the bucket interval in nanoseconds.
+     */
+    public long getBucketNanos() {
+        return bucketNanos;
+    }
+
+    /**
+     * Returns the number of buckets.
+     */
+    public int getBucketCount() {
+        return bucketCount;
+    }
+}
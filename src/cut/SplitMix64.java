@@ -0,0 +1,130 @@
+package cut;
+
+/**
+ * The SplitMix64 pseudo-random number generator, the generator of
+ * java.util.SplittableRandom with a fixed gamma. Very fast, 64 bits of state, but not
+ * cryptographically secure. Mainly used to seed other generators, for example
+ * Xoroshiro128PlusPlus.
+ *
+ * <p>Instances are not thread-safe; use current() to get a generator for the current
+ * thread, or split() to get a generator for another task.</p>
+ */
+public class SplitMix64 {
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final ThreadLocal<SplitMix64> CURRENT = new ThreadLocal<SplitMix64>() {
+        protected SplitMix64 initialValue() {
+            return new SplitMix64();
+        }
+    };
+
+    private long state;
+
+    /**
+     * Creates a generator seeded from SeedGenerator.getDefault().
+     */
+    public SplitMix64() {
+        this(Bytes.bytesToLongLE(SeedGenerator.getDefault().getSeed(), 0));
+    }
+
+    public SplitMix64(long seed) {
+        this.state = seed;
+    }
+
+    /**
+     * Returns the generator of the current thread.
+     */
+    public static SplitMix64 current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns a new generator, independent of this one in practice.
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(mix(nextLong()));
+    }
+
+    public long nextLong() {
+        state += GAMMA;
+        return mix(state);
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a value in [0, bound), evenly distributed.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound <= 0 not allowed");
+        }
+
+        int bits;
+        int value;
+        do {
+            bits = nextInt() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    /**
+     * Returns a value in [0.0, 1.0).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Fills a range of a long array with random values.
+     */
+    public void nextLongs(long[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        long s = state;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            s += GAMMA;
+            dest[i] = mix(s);
+        }
+        state = s;
+    }
+
+    /**
+     * Fills a range of a byte array with random bytes.
+     */
+    public void nextBytes(byte[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            Bytes.longToBytesLE(nextLong(), dest, i);
+        }
+        if (i < end) {
+            long value = nextLong();
+            for (; i < end; i++) {
+                dest[i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+
+    public void nextBytes(byte[] dest) {
+        nextBytes(dest, 0, dest.length);
+    }
+
+    /**
+     * The SplitMix64 output function, a bijective mix of 64 bits.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
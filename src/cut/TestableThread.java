@@ -9,6 +9,8 @@ package cut;
  * in the code to be tested. Then run the code using threads that
  * are TestableThread instances. Enable assertions (-ea).
  * The threads can be controlled with go-to-break-point functionality.
+ * To search many interleavings of the break points systematically, 
+ * see ScheduleExplorer.
  * 
  * @author Frans Lundberg
  */
@@ -16,6 +18,10 @@ public class TestableThread extends Thread {
     private final Object sync = new Object();
     private volatile String breakName;
     
+    /** Set when the thread is run by a ScheduleExplorer. */
+    ScheduleExplorer.Run run;
+    int runIndex;
+    
     public TestableThread(Runnable r) {
         super(r);
     }
@@ -49,6 +55,11 @@ public class TestableThread extends Thread {
         Thread thread = Thread.currentThread();
         if (thread instanceof TestableThread) {
             TestableThread tt = (TestableThread) thread;
+            if (tt.run != null) {
+                tt.run.pause(tt, breakName);
+                return true;
+            }
+            
             synchronized (tt.sync) {
                 while (tt.breakName != null && tt.breakName.equals(breakName)) {
                     try {
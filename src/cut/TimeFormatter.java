@@ -0,0 +1,291 @@
+package cut;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats time values in clock units (100 ns units since epoch, see TimeResolver)
+ * to time strings of the format "YYYY-MM-DD HH:MM:SS.fffffff", the format
+ * TimeResolver resolves. All seven fractional digits are written.
+ *
+ * <p>The time string can be written to a char array, to a byte array (ASCII), or be
+ * appended to a StringBuilder; no objects are created in these cases. The date part
+ * is computed with the civil-from-days algorithm and is cached, so formatting
+ * times of the same day only computes the time of day.</p>
+ *
+ * <p>The Gregorian calendar is used, like GregorianCalendar does, and the formatted
+ * time resolves to the same time value with TimeResolver. Years must be in the
+ * range 1-9999.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class TimeFormatter {
+    /** Length of the formatted time string. */
+    public static final int LENGTH = 27;
+
+    private static final long UNITS_PER_SECOND = TimeResolver.UNITS_PER_SECOND;
+    private static final long UNITS_PER_MILLISECOND = TimeResolver.UNITS_PER_MILLISECOND;
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+    private static final long UNITS_PER_DAY = MILLIS_PER_DAY * UNITS_PER_MILLISECOND;
+
+    /** Days since epoch of 1582-10-15, the first day of the Gregorian calendar. */
+    private static final long GREGORIAN_CUTOVER_DAY = -141427;
+
+    private final TimeZone zone;
+
+    /**
+     * The last day used. The Day object is immutable, so it is safe to
+     * share it between threads without synchronization.
+     */
+    private Day lastDay;
+
+    /**
+     * A local day with its date formatted. Times in [utcStart, utcEnd) belong to the day.
+     */
+    private static final class Day {
+        final long utcStart;
+        final long utcEnd;
+        final char[] chars;
+        final byte[] bytes;
+
+        Day(long utcStart, long utcEnd, char[] chars) {
+            this.utcStart = utcStart;
+            this.utcEnd = utcEnd;
+            this.chars = chars;
+            this.bytes = new byte[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                bytes[i] = (byte) chars[i];
+            }
+        }
+    }
+
+    /**
+     * Creates a formatter for the given time zone.
+     */
+    public TimeFormatter(TimeZone zone) {
+        if (zone == null) {
+            throw new IllegalArgumentException("zone == null not allowed");
+        }
+        this.zone = zone;
+    }
+
+    /**
+     * Writes the time string of a time value to a char array.
+     *
+     * @param time  Time in clock units.
+     * @return The offset after the written chars, offset + LENGTH.
+     */
+    public int format(long time, char[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - LENGTH) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+
+        Day day = day(time);
+        System.arraycopy(day.chars, 0, dest, offset, 10);
+
+        long t = time - day.utcStart;
+        int o = offset + 10;
+        dest[o++] = ' ';
+        o = write2(dest, o, (int) (t / (3600 * UNITS_PER_SECOND)));
+        dest[o++] = ':';
+        o = write2(dest, o, (int) (t / (60 * UNITS_PER_SECOND) % 60));
+        dest[o++] = ':';
+        o = write2(dest, o, (int) (t / UNITS_PER_SECOND % 60));
+        dest[o++] = '.';
+
+        int fraction = (int) (t % UNITS_PER_SECOND);
+        for (int i = o + 6; i >= o; i--) {
+            dest[i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+
+        return o + 7;
+    }
+
+    /**
+     * Writes the time string of a time value to a byte array, one ASCII byte per char.
+     *
+     * @param time  Time in clock units.
+     * @return The offset after the written bytes, offset + LENGTH.
+     */
+    public int format(long time, byte[] dest, int offset) {
+        if (offset < 0 || offset > dest.length - LENGTH) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+
+        Day day = day(time);
+        System.arraycopy(day.bytes, 0, dest, offset, 10);
+
+        long t = time - day.utcStart;
+        int o = offset + 10;
+        dest[o++] = ' ';
+        o = write2(dest, o, (int) (t / (3600 * UNITS_PER_SECOND)));
+        dest[o++] = ':';
+        o = write2(dest, o, (int) (t / (60 * UNITS_PER_SECOND) % 60));
+        dest[o++] = ':';
+        o = write2(dest, o, (int) (t / UNITS_PER_SECOND % 60));
+        dest[o++] = '.';
+
+        int fraction = (int) (t % UNITS_PER_SECOND);
+        for (int i = o + 6; i >= o; i--) {
+            dest[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+
+        return o + 7;
+    }
+
+    /**
+     * Appends the time string of a time value to a StringBuilder.
+     *
+     * @param time  Time in clock units.
+     * @return The StringBuilder.
+     */
+    public StringBuilder format(long time, StringBuilder b) {
+        Day day = day(time);
+        b.append(day.chars);
+
+        long t = time - day.utcStart;
+        b.append(' ');
+        append2(b, (int) (t / (3600 * UNITS_PER_SECOND)));
+        b.append(':');
+        append2(b, (int) (t / (60 * UNITS_PER_SECOND) % 60));
+        b.append(':');
+        append2(b, (int) (t / UNITS_PER_SECOND % 60));
+        b.append('.');
+
+        int fraction = (int) (t % UNITS_PER_SECOND);
+        for (int divisor = 1000000; divisor > 0; divisor /= 10) {
+            b.append((char) ('0' + fraction / divisor % 10));
+        }
+
+        return b;
+    }
+
+    /**
+     * Returns the time string of a time value.
+     *
+     * @param time  Time in clock units.
+     */
+    public String format(long time) {
+        char[] chars = new char[LENGTH];
+        format(time, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the local day that time belongs to.
+     */
+    private Day day(long time) {
+        Day day = lastDay;
+        if (day != null && time >= day.utcStart && time < day.utcEnd) {
+            return day;
+        }
+
+        long millis = Math.floorDiv(time, UNITS_PER_MILLISECOND);
+        int offset = zone.getOffset(millis);
+        long localDay = Math.floorDiv(millis + offset, MILLIS_PER_DAY);
+        long dayStartMillis = localDay * MILLIS_PER_DAY;
+        long utcStart = (dayStartMillis - offset) * UNITS_PER_MILLISECOND;
+        char[] chars = formatDate(localDay, millis);
+
+        // Offsets are within +-18 hours, so the local day maps to UTC times within
+        // the three days checked. If the offset changes during the day, the Day
+        // is only valid for this time value.
+
+        boolean constant = offset == zone.getOffset(dayStartMillis - MILLIS_PER_DAY)
+                && offset == zone.getOffset(dayStartMillis + 2 * MILLIS_PER_DAY);
+
+        if (constant && localDay >= GREGORIAN_CUTOVER_DAY) {
+            day = new Day(utcStart, utcStart + UNITS_PER_DAY, chars);
+            lastDay = day;
+        } else {
+            day = new Day(utcStart, time + 1, chars);
+        }
+
+        return day;
+    }
+
+    /**
+     * Returns the date, "YYYY-MM-DD", of a local day.
+     *
+     * @param localDay  Days since epoch, local time.
+     * @param millis  The time in milliseconds, UTC. Used before the Gregorian cutover.
+     */
+    private char[] formatDate(long localDay, long millis) {
+        long year;
+        int month;
+        int date;
+
+        if (localDay >= GREGORIAN_CUTOVER_DAY) {
+            long ymd = civilFromDays(localDay);
+            year = ymd / 10000;
+            month = (int) (ymd / 100 % 100);
+            date = (int) (ymd % 100);
+        } else {
+            // Julian calendar, like GregorianCalendar.
+            GregorianCalendar c = new GregorianCalendar(zone, Locale.US);
+            c.setTimeInMillis(millis);
+            year = c.get(Calendar.ERA) == GregorianCalendar.BC ? 0 : c.get(Calendar.YEAR);
+            month = c.get(Calendar.MONTH) + 1;
+            date = c.get(Calendar.DATE);
+        }
+
+        if (year < 1 || year > 9999) {
+            throw new IllegalArgumentException("Year out of range, time: " + millis + " ms.");
+        }
+
+        char[] chars = new char[10];
+        int y = (int) year;
+        chars[0] = (char) ('0' + y / 1000);
+        chars[1] = (char) ('0' + y / 100 % 10);
+        write2(chars, 2, y % 100);
+        chars[4] = '-';
+        write2(chars, 5, month);
+        chars[7] = '-';
+        write2(chars, 8, date);
+        return chars;
+    }
+
+    /**
+     * Returns the proleptic Gregorian date of a day as a number, YYYYMMDD.
+     * Civil-from-days algorithm by Howard Hinnant,
+     * http://howardhinnant.github.io/date_algorithms.html.
+     *
+     * @param day  Days since epoch (1970-01-01).
+     */
+    static long civilFromDays(long day) {
+        long z = day + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long year = yoe + era * 400;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long date = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        if (month <= 2) {
+            year++;
+        }
+        return year * 10000 + month * 100 + date;
+    }
+
+    private static int write2(char[] dest, int offset, int value) {
+        dest[offset] = (char) ('0' + value / 10);
+        dest[offset + 1] = (char) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    private static int write2(byte[] dest, int offset, int value) {
+        dest[offset] = (byte) ('0' + value / 10);
+        dest[offset + 1] = (byte) ('0' + value % 10);
+        return offset + 2;
+    }
+
+    private static void append2(StringBuilder b, int value) {
+        b.append((char) ('0' + value / 10));
+        b.append((char) ('0' + value % 10));
+    }
+}
@@ -2,14 +2,16 @@ package cut;
 
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 
 /**
  * <p>The methods resolve() and resolveAbsolute() resolve a <i>time string</i> to a time value
  * in clock units (100 ns units since epoch).
  * The format of the time string loosely follows ISO 8601.
- * This class is not thread-safe. The Gregorian calendar is used (the ordinary Western calendar).
+ * This class is thread-safe. The Gregorian calendar is used (the ordinary Western calendar).
  * Leap seconds are never considered. One day is always exactly 24*3600 seconds, 
  * one minute is 60 seconds and one hour is always 3600 seconds.</p>
  * 
@@ -74,40 +76,62 @@ import java.util.TimeZone;
  */
 public class TimeResolver {
     //
-    // Let's try to implement the whole thing as a function. 
-    // resolve(currentTime, timeZone, timeString)... Would be thread-safe.
+    // The implementation is pure arithmetic on the proleptic Gregorian calendar
+    // (days-from-civil) and is thread-safe. GregorianCalendar is only used for times before 
+    // the Gregorian cutover (1582) and for local times on days with a time zone 
+    // transition; in those cases the result must be exactly what GregorianCalendar computes.
     //
     
     /** UTC time zone. */
     public static final TimeZone UTC = TimeZone.getTimeZone("UTC");
     public static final long UNITS_PER_SECOND = 10*1000000;
     public static final long UNITS_PER_MILLISECOND = UNITS_PER_SECOND / 1000;
-    private final TimeData td;
-    private final GregorianCalendar calendar;
     
-    /**
-     * Stores parse state.
-     */
-    private static class TimeData {
-        int year;
-        int month;
-        int date;
-        int hour;
-        int minute;
-        double second;
-    }
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+    
+    /** Days since epoch of 1582-10-15, the first day of the Gregorian calendar. */
+    private static final long GREGORIAN_CUTOVER_DAY = -141427;
+    
+    /** Returned by localOffset() when the offset is not constant for the day. */
+    private static final int NO_OFFSET = Integer.MIN_VALUE;
+    
+    /** Returned by the tryParse methods for a bad string; parsed values are never negative. */
+    private static final int BAD = -1;
+    
+    /** Small direct-mapped cache of time zone offsets per local day. */
+    private static final ZoneDay[] ZONE_DAYS = new ZoneDay[16];
     
     /**
-     * Creates a TimeResolver with the given time zone.
+     * Immutable cache entry, the offset of a time zone for a whole local day.
      */
-    private TimeResolver(TimeZone timeZone) {
-        if (timeZone == null) {
-            throw new IllegalArgumentException("timeZone == null not allowed");
+    private static final class ZoneDay {
+        final TimeZone zone;
+        final long day;
+        final int offset;
+        
+        ZoneDay(TimeZone zone, long day, int offset) {
+            this.zone = zone;
+            this.day = day;
+            this.offset = offset;
         }
-        this.td = new TimeData();
-        this.calendar = new GregorianCalendar(timeZone, Locale.US);
     }
     
+    /** Max number of compiled expressions cached by compile(). */
+    public static final int COMPILE_CACHE_SIZE = 1024;
+    
+    /** Compiled expressions, least recently used first. Guarded by itself. */
+    private static final Map<String, Expression> COMPILE_CACHE = 
+            new LinkedHashMap<String, Expression>(64, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > COMPILE_CACHE_SIZE;
+        }
+        
+        private static final long serialVersionUID = 1L;
+    };
+    
+    /** No instances. */
+    private TimeResolver() {}
+    
     /**
      * This method resolves a time string (like "yesterday", "2013-08-30" or "now") to a time
      * value in database time units (100 ns units since epoch).
@@ -118,337 +142,895 @@ public class TimeResolver {
      * @throws BadFormatException
      */
     public static long resolve(TimeZone timeZone, long currentTime, String timeString) throws BadFormatException {
-        return new TimeResolver(timeZone).reallyResolve(currentTime, timeString);
+        if (timeString == null) {
+            checkTimeZone(timeZone);
+            throw new IllegalArgumentException("timeString == null is not allowed");
+        }
+        return resolve(timeZone, currentTime, timeString, 0, timeString.length());
+    }
+    
+    /**
+     * Resolves the time string timeString[start, end). No objects are created unless 
+     * the string has a bad format.
+     * 
+     * @see #resolve(TimeZone, long, String)
+     */
+    public static long resolve(TimeZone timeZone, long currentTime, CharSequence timeString, 
+            int start, int end) throws BadFormatException {
+        checkTimeZone(timeZone);
+        if (timeString == null) {
+            throw new IllegalArgumentException("timeString == null is not allowed");
+        }
+        checkRange(timeString.length(), start, end);
+        return reallyResolve(timeZone, currentTime, timeString, null, start, end);
+    }
+    
+    /**
+     * Resolves a time string stored as ASCII bytes, ascii[offset] to ascii[offset + length - 1]. 
+     * No objects are created unless the string has a bad format.
+     * 
+     * @see #resolve(TimeZone, long, String)
+     */
+    public static long resolve(TimeZone timeZone, long currentTime, byte[] ascii, 
+            int offset, int length) throws BadFormatException {
+        checkTimeZone(timeZone);
+        if (ascii == null) {
+            throw new IllegalArgumentException("ascii == null is not allowed");
+        }
+        checkRange(ascii.length, offset, offset + length);
+        return reallyResolve(timeZone, currentTime, null, ascii, offset, offset + length);
     }
     
     /**
      * Resolves a time string the must be absolute; no current time is needed.
      */
     public static long resolveAbsolute(TimeZone timeZone, String timeString) {
-        return new TimeResolver(timeZone).reallyResolveAbsolute(timeString);
+        return resolveAbsolute(timeZone, timeString, 0, timeString.length());
     }
     
-    private long reallyResolve(long currentTime, String timeString) throws BadFormatException {
+    /**
+     * Resolves the absolute time string timeString[start, end). No objects are created unless 
+     * the string has a bad format.
+     */
+    public static long resolveAbsolute(TimeZone timeZone, CharSequence timeString, int start, int end) {
+        checkTimeZone(timeZone);
+        checkRange(timeString.length(), start, end);
+        return reallyResolveAbsolute(timeZone, timeString, null, start, end);
+    }
+    
+    /**
+     * Resolves an absolute time string stored as ASCII bytes, 
+     * ascii[offset] to ascii[offset + length - 1]. No objects are created unless 
+     * the string has a bad format.
+     */
+    public static long resolveAbsolute(TimeZone timeZone, byte[] ascii, int offset, int length) {
+        checkTimeZone(timeZone);
+        checkRange(ascii.length, offset, offset + length);
+        return reallyResolveAbsolute(timeZone, null, ascii, offset, offset + length);
+    }
+    
+    /**
+     * Resolves many absolute time strings at once, typically a column of a CSV file.
+     * The result for timeStrings[i] is written to result[i]. A string that cannot 
+     * be resolved gives 0 as the result and bit i set in the errors bitmap 
+     * (errors[i / 64] &amp; (1L &lt;&lt; i)); no BadFormatException is thrown.
+     * 
+     * <p>No objects are created for good rows. When consecutive strings share 
+     * the same date, only the time of day is parsed and computed. 
+     * The results are identical to what resolveAbsolute(TimeZone, String) returns.</p>
+     * 
+     * @param timeStrings  The time strings, null elements are reported as errors.
+     * @param result  The resolved times in clock units, at least timeStrings.length long.
+     * @param errors  Bitmap of bad rows, at least (timeStrings.length + 63) / 64 long. 
+     * @return The number of bad rows.
+     */
+    public static int resolveAbsolute(TimeZone timeZone, CharSequence[] timeStrings, 
+            long[] result, long[] errors) {
+        checkTimeZone(timeZone);
+        return resolveRows(timeZone, timeStrings, null, null, null, timeStrings.length, result, errors);
+    }
+    
+    /**
+     * Resolves many absolute time strings stored as ASCII in a byte array, typically 
+     * fields of a CSV file. The time string of row i is data[offsets[i]] to 
+     * data[offsets[i] + lengths[i] - 1]. 
+     * Otherwise, the same as resolveAbsolute(TimeZone, CharSequence[], long[], long[]).
+     * 
+     * @param count  The number of rows.
+     * @return The number of bad rows.
+     */
+    public static int resolveAbsolute(TimeZone timeZone, byte[] data, int[] offsets, int[] lengths, 
+            int count, long[] result, long[] errors) {
+        checkTimeZone(timeZone);
+        return resolveRows(timeZone, null, data, offsets, lengths, count, result, errors);
+    }
+    
+    /**
+     * Compiles a time string to an immutable, thread-safe Expression. 
+     * Evaluating the expression gives the same result as resolve() with the time string, 
+     * but the string is parsed only once. Compiled expressions are cached; 
+     * the most recently used ones are kept (max COMPILE_CACHE_SIZE).
+     * 
+     * @throws BadFormatException If the time string has a bad format.
+     */
+    public static Expression compile(String timeString) throws BadFormatException {
         if (timeString == null) {
             throw new IllegalArgumentException("timeString == null is not allowed");
         }
         
-        int length = timeString.length();
+        Expression e;
+        synchronized (COMPILE_CACHE) {
+            e = COMPILE_CACHE.get(timeString);
+        }
+        
+        if (e == null) {
+            e = reallyCompile(timeString);
+            synchronized (COMPILE_CACHE) {
+                COMPILE_CACHE.put(timeString, e);
+            }
+        }
+        
+        return e;
+    }
+    
+    private static Expression reallyCompile(String s) {
+        int end = s.length();
+        
+        if (end == 0) {
+            throw new BadFormatException("Empty string is not allowed for a timeString.");
+        }
+        
+        if (end < 3) {
+            throw new BadFormatException("Time string is too short, was: " + s + ".");
+        }
+        
+        if (s.equals("now")) {
+            return new Expression(s, Expression.NOW, 0, 0, 0);
+        }
+        
+        char first = s.charAt(0);
+        if (first == '-' || first == '+') {
+            long delta = parseDelta(s, null, 0, end);
+            int timeStart = plusOrMinusTimeStart(s, null, 0, end);
+            if (timeStart == -1) {
+                return new Expression(s, Expression.PLUS_MINUS, 0, 0, delta);
+            }
+            long timeOfDay = parseTime(s, null, timeStart, end);
+            return new Expression(s, Expression.PLUS_MINUS_TIME_OF_DAY, 0, timeOfDay, delta);
+        }
+        
+        if (end > 4 && s.charAt(4) == '-') {
+            int date = parseAbsoluteDate(s, null, 0, end);
+            long timeOfDay = parseAbsoluteTime(s, null, 0, end);
+            return new Expression(s, Expression.ABSOLUTE, date, timeOfDay, 0);
+        } else {
+            long timeOfDay = parseTime(s, null, 0, end);
+            return new Expression(s, Expression.TIME_OF_DAY, 0, timeOfDay, 0);
+        }
+    }
+    
+    private static void checkTimeZone(TimeZone timeZone) {
+        if (timeZone == null) {
+            throw new IllegalArgumentException("timeZone == null not allowed");
+        }
+    }
+    
+    private static void checkRange(int length, int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end 
+                    + ", length: " + length);
+        }
+    }
+    
+    //
+    // The parse methods below read chars with charAt(cs, data, index), from the 
+    // CharSequence cs if it is not null, otherwise from the ASCII bytes in data. 
+    // The time string is [start, end). 
+    //
+    
+    private static long reallyResolve(TimeZone zone, long currentTime, 
+            CharSequence cs, byte[] data, int start, int end) throws BadFormatException {
+        int length = end - start;
         
         if (length == 0) {
             throw new BadFormatException("Empty string is not allowed for a timeString.");
         }
         
         if (length < 3) {
-            throw new BadFormatException("Time string is too short, was: " + timeString + ".");
+            throw new BadFormatException("Time string is too short, was: " + str(cs, data, start, end) + ".");
         }
         
-        if (length == 3 && timeString.equals("now")) {
+        if (length == 3 && charAt(cs, data, start) == 'n' && charAt(cs, data, start + 1) == 'o'
+                && charAt(cs, data, start + 2) == 'w') {
             return currentTime;
         }
         
-        char first = timeString.charAt(0);
+        char first = charAt(cs, data, start);
         if (first == '-' || first == '+') {
-            return plusOrMinus(currentTime, timeString);
+            return plusOrMinus(zone, currentTime, cs, data, start, end);
         }
         
-        if (length > 4 && timeString.charAt(4) == '-') {
-            return reallyResolveAbsolute(timeString);
+        if (length > 4 && charAt(cs, data, start + 4) == '-') {
+            return reallyResolveAbsolute(zone, cs, data, start, end);
         } else {
-            return timeOfDay(currentTime, timeString);
+            long timeOfDay = parseTime(cs, data, start, end);
+            return computeTimeUnitsB(zone, currentTime, timeOfDay);
         }
     }
     
-    private long reallyResolveAbsolute(String timeString) {
-        long length = timeString.length();
-        
-        if (length < 7) {
-            throw new BadFormatException("Bad time string, too short, was: '" + timeString + "'.");
+    private static long reallyResolveAbsolute(TimeZone zone, 
+            CharSequence cs, byte[] data, int start, int end) {
+        int date = parseAbsoluteDate(cs, data, start, end);
+        long timeOfDay = parseAbsoluteTime(cs, data, start, end);
+        return computeTimeUnits(zone, date / 10000, date / 100 % 100, date % 100, timeOfDay);
+    }
+    
+    /**
+     * Implements the bulk resolveAbsolute() methods. Either strings or data is non-null.
+     */
+    private static int resolveRows(TimeZone zone, CharSequence[] strings, 
+            byte[] data, int[] offsets, int[] lengths, int count, long[] result, long[] errors) {
+        if (result.length < count || errors.length < (count + 63) / 64) {
+            throw new IllegalArgumentException("result or errors array too short");
         }
         
-        if (timeString.charAt(4) != '-') {
-            throw new BadFormatException("Bad time string, expected '-' as 5th char, was: '" + timeString + "'.");
+        for (int i = 0; i < (count + 63) / 64; i++) {
+            errors[i] = 0;
         }
         
-        parseYear(timeString);
+        int errorCount = 0;
         
-        parseMonth(timeString);
+        // The date of the previous row. prevStart is the start of its string 
+        // (in prevCs or data), or -1 if its date prefix cannot be reused.
+        int prevDate = -1;
+        long prevDayMillis = 0;
+        int prevOffset = NO_OFFSET;
+        CharSequence prevCs = null;
+        int prevStart = -1;
         
-        if (length > 7) {
-            if (length < 10) {
-                throw new BadFormatException("Bad absolute time string, was: '" + timeString + "'.");
-            }
+        for (int row = 0; row < count; row++) {
+            CharSequence cs = null;
+            int start;
+            int end;
             
-            if (timeString.charAt(7) != '-') {
-                throw new BadFormatException("Bad absolute time string, was: '" + timeString + "'.");
+            if (strings != null) {
+                cs = strings[row];
+                start = 0;
+                end = cs == null ? 0 : cs.length();
+            } else {
+                start = offsets[row];
+                end = start + lengths[row];
             }
             
-            parseDate(timeString);
-        } else {
-            td.date = 1;
-        }
-        
-        if (length > 10) {
-            if (length < 16) {
-                throw new BadFormatException("Bad absolute time string, was: '" + timeString + "'.");
+            int date = BAD;
+            long timeOfDay = BAD;
+            
+            if (strings == null || cs != null) {
+                if (prevStart >= 0 && end - start >= 10 
+                        && sameDate(prevCs, prevStart, cs, start, data)) {
+                    date = prevDate;
+                } else {
+                    date = tryParseAbsoluteDate(cs, data, start, end);
+                }
+                if (date != BAD) {
+                    timeOfDay = tryParseAbsoluteTime(cs, data, start, end);
+                }
             }
             
-            char c = timeString.charAt(10);
-            if (c != ' ' && c != 'T') {
-                throw new BadFormatException("Bad absolute time string, was: '" + timeString + "'.");
+            if (timeOfDay == BAD) {
+                result[row] = 0;
+                errors[row >>> 6] |= 1L << row;
+                errorCount++;
+                continue;
             }
             
-            parseTime(timeString, 11);
+            prevCs = cs;
+            prevStart = end - start >= 10 ? start : -1;
             
-        } else {
-            td.hour = 0;
-            td.minute = 0;
-            td.second = 0.0;
+            int year = date / 10000;
+            int month = date / 100 % 100;
+            int day = date % 100;
+            
+            if (date != prevDate) {
+                prevDate = date;
+                prevDayMillis = (daysFromCivil(year, month) + day - 1) * MILLIS_PER_DAY;
+                prevOffset = localOffset(zone, prevDayMillis);
+            }
+            
+            if (prevOffset != NO_OFFSET && timeOfDay >= 0 
+                    && timeOfDay < MILLIS_PER_DAY * UNITS_PER_MILLISECOND) {
+                result[row] = (prevDayMillis - prevOffset) * UNITS_PER_MILLISECOND + timeOfDay;
+            } else {
+                result[row] = computeTimeUnits(zone, year, month, day, timeOfDay);
+            }
         }
         
-        return computeTimeUnits();
+        return errorCount;
     }
-
-    private void parseDate(String timeString) {
-        td.date = parseZeroPadded(timeString.substring(8, 10), timeString);
-        // Let's allowed "overflow" for now, like: 2013-02-50".
+    
+    /**
+     * Returns true if two strings have the same 10-char date prefix, "YYYY-MM-DD".
+     * The strings are in cs1 and cs2, or both in data.
+     */
+    private static boolean sameDate(CharSequence cs1, int start1, 
+            CharSequence cs2, int start2, byte[] data) {
+        if (data != null) {
+            for (int i = 0; i < 10; i++) {
+                if (data[start1 + i] != data[start2 + i]) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < 10; i++) {
+                if (cs1.charAt(start1 + i) != cs2.charAt(start2 + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
-
-    private void parseMonth(String timeString) {
-        td.month = parseZeroPadded(timeString.substring(5, 7), timeString);
-        if (td.month < 0) {
-            throw new BadFormatException("Bad absolute time string, bad month, was: '" + timeString + "'.");
+    
+    /**
+     * Parses the date of an absolute time string, "YYYY-MM[-DD]...". 
+     * Returns YYYYMMDD as an int, the date is 1 if not given.
+     */
+    private static int parseAbsoluteDate(CharSequence cs, byte[] data, int start, int end) {
+        int date = tryParseAbsoluteDate(cs, data, start, end);
+        if (date == BAD) {
+            throw new BadFormatException("Bad absolute time string, was: '" + str(cs, data, start, end) + "'.");
         }
+        return date;
     }
-
-    private void parseYear(String timeString) {
-        try {
-            td.year = Integer.parseInt(timeString.substring(0, 4));
-        } catch (NumberFormatException e) {
-            throw new BadFormatException("Bad time string, was: '" + timeString + "'.");
+    
+    /**
+     * Like parseAbsoluteDate(), but returns BAD instead of throwing.
+     */
+    private static int tryParseAbsoluteDate(CharSequence cs, byte[] data, int start, int end) {
+        int length = end - start;
+        
+        if (length < 7 || charAt(cs, data, start + 4) != '-') {
+            return BAD;
+        }
+        
+        int year = tryParseDigits(cs, data, start, 4);
+        int month = tryParseDigits(cs, data, start + 5, 2);
+        int date = 1;
+        
+        if (length > 7) {
+            if (length < 10 || charAt(cs, data, start + 7) != '-') {
+                return BAD;
+            }
+            
+            date = tryParseDigits(cs, data, start + 8, 2);
+            // Let's allowed "overflow" for now, like: 2013-02-50".
         }
+        
+        if (year == BAD || month == BAD || date == BAD) {
+            return BAD;
+        }
+        
+        return year * 10000 + month * 100 + date;
+    }
+    
+    /**
+     * Parses the optional time of day of an absolute time string, 
+     * "YYYY-MM-DD HH:MM[:SS.sssssss]". Returns the time since midnight in clock units.
+     */
+    private static long parseAbsoluteTime(CharSequence cs, byte[] data, int start, int end) {
+        long timeOfDay = tryParseAbsoluteTime(cs, data, start, end);
+        if (timeOfDay == BAD) {
+            throw new BadFormatException("Bad absolute time string, was: '" + str(cs, data, start, end) + "'.");
+        }
+        return timeOfDay;
     }
     
     /**
-     * Converts from TimeData to GregorianCalendar to time units.
+     * Like parseAbsoluteTime(), but returns BAD instead of throwing.
      */
-    private long computeTimeUnits() {
-        calendar.setTimeInMillis(0);
-        calendar.set(Calendar.YEAR, td.year);
-        calendar.set(Calendar.MONTH, td.month - 1);
-        calendar.set(Calendar.DATE, td.date);
-        calendar.set(Calendar.HOUR_OF_DAY, td.hour);
-        calendar.set(Calendar.MINUTE, td.minute);
+    private static long tryParseAbsoluteTime(CharSequence cs, byte[] data, int start, int end) {
+        int length = end - start;
         
-        double floor = Math.floor(td.second);
-        int second = (int) floor;
-        double fraction = td.second - floor;
-        if (fraction > 1.0) {
-            throw new AssertionError("fraction: " + fraction + ", td.second = " + td.second);
+        if (length <= 10) {
+            return 0;
         }
         
-        fraction = 1000.0 * fraction;
-        double milliFloor = Math.floor(fraction);
-        double milliFraction = fraction - milliFloor;
-        if (milliFraction > 1.0) {
-            throw new AssertionError("milliFraction: " + milliFraction + ", td.second = " + td.second);
+        if (length < 16) {
+            return BAD;
         }
         
-        int millis = (int) milliFloor;
-        long change = Math.round(milliFraction * UNITS_PER_MILLISECOND);
+        char c = charAt(cs, data, start + 10);
+        if (c != ' ' && c != 'T') {
+            return BAD;
+        }
+        
+        return tryParseTime(cs, data, start + 11, end);
+    }
+    
+    /**
+     * Computes time units from a local date and a local time of day.
+     * Fields are lenient like for GregorianCalendar, month 13 is January next year, for example.
+     * 
+     * @param month  January = 1.
+     * @param timeOfDay  Local time since midnight in clock units.
+     */
+    private static long computeTimeUnits(TimeZone zone, int year, int month, int date, long timeOfDay) {
+        long millisOfDay = Math.floorDiv(timeOfDay, UNITS_PER_MILLISECOND);
+        long change = timeOfDay - millisOfDay * UNITS_PER_MILLISECOND;
+        
+        long localMillis = (daysFromCivil(year, month) + date - 1) * MILLIS_PER_DAY + millisOfDay;
+        int offset = localOffset(zone, localMillis);
         
-        calendar.set(Calendar.SECOND, second);
-        calendar.set(Calendar.MILLISECOND, millis);
+        long millis;
+        if (offset == NO_OFFSET) {
+            GregorianCalendar calendar = new GregorianCalendar(zone, Locale.US);
+            calendar.setTimeInMillis(0);
+            calendar.set(Calendar.YEAR, year);
+            calendar.set(Calendar.MONTH, month - 1);
+            calendar.set(Calendar.DATE, date);
+            setTimeOfDay(calendar, millisOfDay);
+            millis = calendar.getTimeInMillis();
+        } else {
+            millis = localMillis - offset;
+        }
         
-        long result = calendar.getTimeInMillis() * UNITS_PER_MILLISECOND + change;
-        return result;
+        return millis * UNITS_PER_MILLISECOND + change;
     }
     
     /**
-     * Converts from TimeData to GregorianCalendar to time units.
+     * Computes time units from a local time of day.
      * currentTime is used to compute "today".
      */
-    private long computeTimeUnitsB(long currentTime) {
-        calendar.setTimeInMillis(currentTime / TimeResolver.UNITS_PER_MILLISECOND);
-        calendar.set(Calendar.HOUR_OF_DAY, td.hour);
-        calendar.set(Calendar.MINUTE, td.minute);
+    private static long computeTimeUnitsB(TimeZone zone, long currentTime, long timeOfDay) {
+        long currentMillis = currentTime / UNITS_PER_MILLISECOND;
+        long millisOfDay = Math.floorDiv(timeOfDay, UNITS_PER_MILLISECOND);
+        long change = timeOfDay - millisOfDay * UNITS_PER_MILLISECOND;
+        
+        long currentLocal = currentMillis + zone.getOffset(currentMillis);
+        long localMillis = Math.floorDiv(currentLocal, MILLIS_PER_DAY) * MILLIS_PER_DAY + millisOfDay;
+        int offset = localOffset(zone, localMillis);
+        
+        long millis;
+        if (offset == NO_OFFSET || Math.floorDiv(currentLocal, MILLIS_PER_DAY) < GREGORIAN_CUTOVER_DAY + 31) {
+            GregorianCalendar calendar = new GregorianCalendar(zone, Locale.US);
+            calendar.setTimeInMillis(currentMillis);
+            setTimeOfDay(calendar, millisOfDay);
+            millis = calendar.getTimeInMillis();
+        } else {
+            millis = localMillis - offset;
+        }
+        
+        return millis * UNITS_PER_MILLISECOND + change;
+    }
+    
+    private static void setTimeOfDay(GregorianCalendar calendar, long millisOfDay) {
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, (int) millisOfDay);
+    }
+    
+    /**
+     * Returns the offset (local time minus UTC) in milliseconds of a time zone for
+     * a local time, or NO_OFFSET if the offset is not the same for the whole local day
+     * or if the time is close to or before the Gregorian cutover.
+     */
+    private static int localOffset(TimeZone zone, long localMillis) {
+        long day = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        if (day < GREGORIAN_CUTOVER_DAY + 31) {
+            return NO_OFFSET;
+        }
         
-        double floor = Math.floor(td.second);
-        int second = (int) floor;
-        double fraction = td.second - floor;
-        if (fraction > 1.0) {
-            throw new AssertionError("fraction: " + fraction + ", td.second = " + td.second);
+        int index = (System.identityHashCode(zone) ^ (int) day) & (ZONE_DAYS.length - 1);
+        ZoneDay zd = ZONE_DAYS[index];
+        if (zd != null && zd.zone == zone && zd.day == day) {
+            return zd.offset;
         }
         
-        fraction = 1000.0 * fraction;
-        double milliFloor = Math.floor(fraction);
-        double milliFraction = fraction - milliFloor;
-        if (milliFraction > 1.0) {
-            throw new AssertionError("milliFraction: " + milliFraction + ", td.second = " + td.second);
+        // Offsets are within +-18 hours, so the local day maps to UTC times within
+        // the three days checked.
+        
+        long dayStart = day * MILLIS_PER_DAY;
+        int offset = zone.getOffset(dayStart - MILLIS_PER_DAY);
+        if (offset != zone.getOffset(dayStart + MILLIS_PER_DAY / 2)
+                || offset != zone.getOffset(dayStart + 2 * MILLIS_PER_DAY)) {
+            offset = NO_OFFSET;
         }
         
-        int millis = (int) milliFloor;
-        long change = Math.round(milliFraction * UNITS_PER_MILLISECOND);
+        ZONE_DAYS[index] = new ZoneDay(zone, day, offset);
+        return offset;
+    }
+    
+    /**
+     * Returns days since epoch (1970-01-01) of the first day of a month in the proleptic 
+     * Gregorian calendar. The month may be outside 1-12. Days-from-civil algorithm by 
+     * Howard Hinnant, http://howardhinnant.github.io/date_algorithms.html.
+     * 
+     * @param month  January = 1.
+     */
+    static long daysFromCivil(long year, long month) {
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
         
-        calendar.set(Calendar.SECOND, second);
-        calendar.set(Calendar.MILLISECOND, millis);
+        if (month <= 2) {
+            year--;
+        }
         
-        long result = calendar.getTimeInMillis() * UNITS_PER_MILLISECOND + change;
-        return result;
+        long era = Math.floorDiv(year, 400);
+        long yoe = year - era * 400;
+        long doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
     }
     
-    private long timeOfDay(long currentTime, String timeString) {
-        parseTime(timeString, 0);
-        return computeTimeUnitsB(currentTime);
+    /**
+     * Parses a time string of the format HH:MM[:SS.sssssss].
+     * Returns the time since midnight in clock units or throws BadFormatException.
+     */
+    private static long parseTime(CharSequence cs, byte[] data, int start, int end) throws BadFormatException {
+        long timeOfDay = tryParseTime(cs, data, start, end);
+        if (timeOfDay == BAD) {
+            throw new BadFormatException("Bad time string, was: '" + str(cs, data, start, end) + "'.");
+        }
+        return timeOfDay;
     }
     
     /**
-     * Parses a time string of the format HH:MM[:SS.sssssss], writes result to this.td.
-     * Sets td.hour, td.minute, td.second or throws BadFormatException.
+     * Like parseTime(), but returns BAD instead of throwing.
      */
-    private void parseTime(String timeString, int offset) throws BadFormatException {
-        int length = timeString.length() - offset;
+    private static long tryParseTime(CharSequence cs, byte[] data, int start, int end) {
+        int length = end - start;
+        int offset = start;
         
         if (length < 5) {
-            throw new BadFormatException("Bad time string, was: '" + timeString + "'.");
+            return BAD;
         }
         
-        td.hour = parseZeroPadded(timeString.substring(offset + 0, offset + 2), timeString);
+        int hour = tryParseDigits(cs, data, offset, 2);
         offset += 2;
         
-        if (timeString.charAt(offset) != ':') {
-            throw new BadFormatException("Bad time string, expected ':', was: '" + timeString + "'.");
+        if (hour == BAD || charAt(cs, data, offset) != ':') {
+            return BAD;
         }
         offset += 1;
         
-        td.minute = parseZeroPadded(timeString.substring(offset, offset + 2), timeString);
+        int minute = tryParseDigits(cs, data, offset, 2);
         offset += 2;
         
+        if (minute == BAD) {
+            return BAD;
+        }
+        
+        long units = (hour * 3600L + minute * 60L) * UNITS_PER_SECOND;
+        
         // If there are seconds
         if (length > 5) {
-            if (length < 8) {
-                throw new BadFormatException("Bad time string, was: '" + timeString + "'.");
-            }
-            
-            if (timeString.charAt(offset) != ':') {
-                throw new BadFormatException("Bad time string, expected ':', was: '" + timeString + "'.");
+            if (length < 8 || charAt(cs, data, offset) != ':') {
+                return BAD;
             }
             offset += 1;
             
-            td.second = parseZeroPaddedDouble(timeString.substring(offset), timeString);
-        } else {
-            td.second = 0.0;
+            long seconds = tryParseSeconds(cs, data, offset, end);
+            if (seconds == BAD) {
+                return BAD;
+            }
+            units += seconds;
         }
+        
+        return units;
     }
     
-    private long plusOrMinus(long currentTime, String timeString) {
-        String[] parts = timeString.split(" ");
-        if (parts.length < 2) {
-            throw new BadFormatException("Bad plus/minus time string: '" + timeString + "'.");
+    /**
+     * Parses seconds, "SS[.sssssss]", from offset to end. Returns clock units, or BAD.
+     * Fraction digits beyond the seventh are rounded (half up).
+     */
+    private static long tryParseSeconds(CharSequence cs, byte[] data, int offset, int end) {
+        int i = offset;
+        long seconds = 0;
+        
+        while (i < end && isDigit(charAt(cs, data, i)) && i - offset < 9) {
+            seconds = seconds * 10 + (charAt(cs, data, i) - '0');
+            i++;
         }
         
-        double number = parseNumber(parts[0], timeString);
+        if (i == offset) {
+            return BAD;
+        }
         
-        double factor = parseUnit(parts[1], timeString);
+        long fraction = 0;
         
-        double deltaTime = number * factor;
-        long time = currentTime + ((long) deltaTime);
+        if (i < end) {
+            if (charAt(cs, data, i) != '.') {
+                return BAD;
+            }
+            i++;
+            
+            long scale = UNITS_PER_SECOND;
+            for (int digit = 1; i < end; i++, digit++) {
+                char c = charAt(cs, data, i);
+                if (!isDigit(c)) {
+                    return BAD;
+                }
+                
+                if (digit <= 7) {
+                    scale /= 10;
+                    fraction += scale * (c - '0');
+                } else if (digit == 8 && c >= '5') {
+                    fraction++;
+                }
+            }
+        }
+        
+        return seconds * UNITS_PER_SECOND + fraction;
+    }
+    
+    private static long plusOrMinus(TimeZone zone, long currentTime, 
+            CharSequence cs, byte[] data, int start, int end) {
+        long time = currentTime + parseDelta(cs, data, start, end);
         
         if (time < 0) {
             throw new BadFormatException("Time out of range (negative: " + time 
-                    + "), time string was: '" + timeString + "'.");
+                    + "), time string was: '" + str(cs, data, start, end) + "'.");
         }
         
         // If time of day comes after plus-minus expression.
-        if (parts.length > 2) {
-            parseTime(timeString, parts[0].length() + 1 + parts[1].length() + 1);
-            time = computeTimeUnitsB(time);
+        int timeStart = plusOrMinusTimeStart(cs, data, start, end);
+        if (timeStart != -1) {
+            long timeOfDay = parseTime(cs, data, timeStart, end);
+            time = computeTimeUnitsB(zone, time, timeOfDay);
         }
         
         return time;
     }
-
-    private double parseNumber(String numberString, String timeString) {
-        double number = 0.0;
-        try {
-            number = Double.parseDouble(numberString);
-        } catch (NumberFormatException e) {
-            throw new BadFormatException("Bad plus/minus time string: '" + timeString + "'.");
+    
+    /**
+     * Parses "number SPACE unit" of a plus-minus time string, 
+     * number SPACE unit [SPACE time]. Returns the time difference in clock units.
+     */
+    private static long parseDelta(CharSequence cs, byte[] data, int start, int end) {
+        int space1 = indexOf(cs, data, ' ', start, end);
+        if (space1 == -1) {
+            throw new BadFormatException("Bad plus/minus time string: '" + str(cs, data, start, end) + "'.");
         }
         
-        return number;
+        int space2 = indexOf(cs, data, ' ', space1 + 1, end);
+        if (space2 == -1) {
+            space2 = end;
+        }
+        
+        double number = parseNumber(cs, data, start, space1);
+        
+        double factor = parseUnit(cs, data, space1 + 1, space2, start, end);
+        
+        double deltaTime = number * factor;
+        return (long) deltaTime;
     }
-
-    private double parseUnit(String unit, String timeString) {
-        double factor;
-        
-        switch (unit) {
-        case "s":
-            factor = UNITS_PER_SECOND;
-            break;
-        case "m":
-            factor = UNITS_PER_SECOND * 60.0;
-            break;
-        case "h":
-            factor = UNITS_PER_SECOND * 3600.0;
-            break;
-        case "day":
-        case "days":
-            factor = UNITS_PER_SECOND * 3600.0 * 24.0;
-            break;
-        case "week":
-        case "weeks":
-            factor = UNITS_PER_SECOND * 3600.0 * 24.0 * 7;
-            break;
-        case "month":
-        case "months":
-            factor = UNITS_PER_SECOND * 3600.0 * 24.0 * 30;
-            break;
-        case "year":
-        case "years":
-            factor = UNITS_PER_SECOND * 3600.0 * 24.0 * 365;
-            break;
-        
-        default:
-            throw new BadFormatException("Bad plus-minus time string, bad unit, was: '" + timeString + "'.");
-        }
-        return factor;
+    
+    /**
+     * Returns the start index of the time of day of a plus-minus time string, 
+     * or -1 if there is none.
+     */
+    private static int plusOrMinusTimeStart(CharSequence cs, byte[] data, int start, int end) {
+        int space1 = indexOf(cs, data, ' ', start, end);
+        int space2 = space1 == -1 ? -1 : indexOf(cs, data, ' ', space1 + 1, end);
+        
+        if (space2 != -1 && indexOfNot(cs, data, ' ', space2, end) != -1) {
+            return space2 + 1;
+        }
+        return -1;
     }
     
     /**
-     * Parse a possibly zero-padded integer. Max one zero as padding assumed.
+     * Parses a signed decimal number, like "-1.5". The result is the same 
+     * as with Double.parseDouble().
      */
-    private int parseZeroPadded(String s, String timeString) {
-        if (s.startsWith("0")) {
-            s = s.substring(1);
+    private static double parseNumber(CharSequence cs, byte[] data, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        
+        if (i < end && (charAt(cs, data, i) == '-' || charAt(cs, data, i) == '+')) {
+            negative = charAt(cs, data, i) == '-';
+            i++;
+        }
+        
+        long mantissa = 0;
+        int digitCount = 0;
+        int fractionDigits = 0;
+        boolean dot = false;
+        boolean exact = true;
+        
+        for (; i < end; i++) {
+            char c = charAt(cs, data, i);
+            if (c == '.' && !dot) {
+                dot = true;
+            } else if (isDigit(c)) {
+                digitCount++;
+                if (mantissa < (1L << 53) / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (dot) {
+                        fractionDigits++;
+                    }
+                } else {
+                    exact = false;
+                }
+            } else {
+                digitCount = 0;
+                break;
+            }
         }
         
-        int result = -1;
-        try {
-            result = Integer.parseInt(s);
-        } catch (NumberFormatException e) {
-            throw new BadFormatException("Bad time string: '" + timeString + "'.");
+        if (digitCount == 0) {
+            throw new BadFormatException("Bad plus/minus time string: '" 
+                    + str(cs, data, start, end) + "'.");
         }
         
-        return result;
+        double number;
+        if (exact && fractionDigits <= 22) {
+            // Both values are exact doubles, so the division is correctly rounded.
+            number = mantissa / POWERS_OF_TEN[fractionDigits];
+        } else {
+            number = Double.parseDouble(str(cs, data, start, end));
+        }
+        
+        return negative ? -number : number;
     }
     
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    
+    private static final String[] UNITS = {
+            "s", "m", "h", "day", "days", "week", "weeks", "month", "months", "year", "years"};
+    
+    private static final double[] UNIT_FACTORS = {
+            UNITS_PER_SECOND, 
+            UNITS_PER_SECOND * 60.0, 
+            UNITS_PER_SECOND * 3600.0, 
+            UNITS_PER_SECOND * 3600.0 * 24.0,
+            UNITS_PER_SECOND * 3600.0 * 24.0,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 7,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 7,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 30,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 30,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 365,
+            UNITS_PER_SECOND * 3600.0 * 24.0 * 365};
+
     /**
-     * Parse a possibly zero-padded integer. Max one zero as padding assumed.
+     * Parses a unit, [unitStart, unitEnd), and returns the number of clock units per unit.
      */
-    private double parseZeroPaddedDouble(String s, String timeString) {
-        if (s.startsWith("0")) {
-            s = s.substring(1);
+    private static double parseUnit(CharSequence cs, byte[] data, int unitStart, int unitEnd, 
+            int start, int end) {
+        int length = unitEnd - unitStart;
+        
+        outer:
+        for (int u = 0; u < UNITS.length; u++) {
+            String unit = UNITS[u];
+            if (unit.length() != length) {
+                continue;
+            }
+            for (int i = 0; i < length; i++) {
+                if (unit.charAt(i) != charAt(cs, data, unitStart + i)) {
+                    continue outer;
+                }
+            }
+            return UNIT_FACTORS[u];
         }
         
-        double result = -1;
-        try {
-            result = Double.parseDouble(s);
-        } catch (NumberFormatException e) {
-            throw new BadFormatException("Bad time string: '" + timeString + "'.");
+        throw new BadFormatException("Bad plus-minus time string, bad unit, was: '" 
+                + str(cs, data, start, end) + "'.");
+    }
+    
+    /**
+     * Parses count decimal digits at offset. Returns BAD if there is a non-digit.
+     */
+    private static int tryParseDigits(CharSequence cs, byte[] data, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = charAt(cs, data, i);
+            if (!isDigit(c)) {
+                return BAD;
+            }
+            value = value * 10 + (c - '0');
         }
+        return value;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    private static int indexOf(CharSequence cs, byte[] data, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (charAt(cs, data, i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int indexOfNot(CharSequence cs, byte[] data, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (charAt(cs, data, i) != c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Returns the char at index, from cs if it is not null, otherwise from the ASCII bytes.
+     */
+    private static char charAt(CharSequence cs, byte[] data, int index) {
+        return cs != null ? cs.charAt(index) : (char) (data[index] & 0xff);
+    }
+    
+    /**
+     * Creates a String of [start, end), used for error messages.
+     */
+    private static String str(CharSequence cs, byte[] data, int start, int end) {
+        if (cs != null) {
+            return cs.subSequence(start, end).toString();
+        }
+        
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (data[start + i] & 0xff);
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * A compiled time string, see compile(). Immutable.
+     */
+    public static final class Expression {
+        static final int NOW = 0;
+        static final int ABSOLUTE = 1;
+        static final int TIME_OF_DAY = 2;
+        static final int PLUS_MINUS = 3;
+        static final int PLUS_MINUS_TIME_OF_DAY = 4;
+        
+        private final String timeString;
+        private final int kind;
+        private final int date;
+        private final long timeOfDay;
+        private final long delta;
         
-        return result;
+        private Expression(String timeString, int kind, int date, long timeOfDay, long delta) {
+            this.timeString = timeString;
+            this.kind = kind;
+            this.date = date;
+            this.timeOfDay = timeOfDay;
+            this.delta = delta;
+        }
+        
+        /**
+         * Resolves the time, same result as TimeResolver.resolve(timeZone, currentTime, timeString).
+         * 
+         * @param currentTime  In database units.
+         * @throws BadFormatException If the resulting time is negative.
+         */
+        public long evaluate(TimeZone timeZone, long currentTime) throws BadFormatException {
+            checkTimeZone(timeZone);
+            
+            switch (kind) {
+            case NOW:
+                return currentTime;
+            case ABSOLUTE:
+                return computeTimeUnits(timeZone, date / 10000, date / 100 % 100, date % 100, timeOfDay);
+            case TIME_OF_DAY:
+                return computeTimeUnitsB(timeZone, currentTime, timeOfDay);
+            default:
+                long time = currentTime + delta;
+                if (time < 0) {
+                    throw new BadFormatException("Time out of range (negative: " + time 
+                            + "), time string was: '" + timeString + "'.");
+                }
+                return kind == PLUS_MINUS ? time : computeTimeUnitsB(timeZone, time, timeOfDay);
+            }
+        }
+        
+        public String toString() {
+            return timeString;
+        }
     }
     
     public static class BadFormatException extends RuntimeException {
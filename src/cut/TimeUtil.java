@@ -7,42 +7,237 @@ import java.util.TimeZone;
 
 /**
  * Public static methods (functions) related to time and dates.
- * 
+ *
+ * The UTC time string functions are thread-safe and do not use SimpleDateFormat
+ * (which is not thread-safe) for ordinary dates. The formatted "yyyy-MM-dd HH:mm" prefix
+ * is cached per minute, so only seconds and milliseconds are formatted per call.
+ *
  * @author Frans Lundberg
  */
 public class TimeUtil {
-    
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 3600 * 1000L;
+
+    /** Days since epoch of 1582-10-15, the first day of the Gregorian calendar. */
+    private static final long GREGORIAN_CUTOVER_DAY = -141427;
+
+    /** Days since epoch of 10000-01-01. */
+    private static final long YEAR_10000_DAY = 2932897;
+
     /**
-     * FORMAT1, yyyy-MM-dd HH:mm:ss.SSS, millisecond resolution.
+     * The last minute formatted. The Minute object is immutable, so it is safe to
+     * share it between threads without synchronization.
      */
-    private static final SimpleDateFormat FORMAT1 = new SimpleDateFormat(
-                    "yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
-    static {
-        FORMAT1.setTimeZone(TimeZone.getTimeZone("UTC"));
-    }
-    
+    private static Minute lastMinute;
+
     /**
-     * FORMAT2, yyyy-MM-dd HH:mm.
+     * A minute with its formatted UTC time string, "yyyy-MM-dd HH:mm".
      */
-    private static final SimpleDateFormat FORMAT2 = new SimpleDateFormat(
-                    "yyyy-MM-dd HH:mm", Locale.US);
-    static {
-        FORMAT2.setTimeZone(TimeZone.getTimeZone("UTC"));
+    private static final class Minute {
+        final long minute;
+        final char[] chars;
+        final byte[] bytes;
+
+        Minute(long minute, char[] chars) {
+            this.minute = minute;
+            this.chars = chars;
+            this.bytes = new byte[chars.length];
+            for (int i = 0; i < chars.length; i++) {
+                bytes[i] = (byte) chars[i];
+            }
+        }
     }
-    
+
     public static String toUtcTimeString(Date date) {
-        return FORMAT1.format(date);
+        return toUtcTimeString(date.getTime());
     }
-    
+
+    /**
+     * Converts time in milliseconds since Unix Epoch
+     * to a time string in UTC, yyyy-MM-dd HH:mm:ss.SSS, millisecond resolution.
+     */
     public static String toUtcTimeString(long millis) {
-        return FORMAT1.format(new Date(millis));
+        Minute m = minute(millis);
+        if (m == null) {
+            return format("yyyy-MM-dd HH:mm:ss.SSS", millis);
+        }
+
+        char[] chars = new char[23];
+        System.arraycopy(m.chars, 0, chars, 0, 16);
+        int ms = (int) Math.floorMod(millis, MILLIS_PER_MINUTE);
+        chars[16] = ':';
+        chars[17] = (char) ('0' + ms / 10000);
+        chars[18] = (char) ('0' + ms / 1000 % 10);
+        chars[19] = '.';
+        chars[20] = (char) ('0' + ms / 100 % 10);
+        chars[21] = (char) ('0' + ms / 10 % 10);
+        chars[22] = (char) ('0' + ms % 10);
+        return new String(chars);
     }
-    
+
     /**
-     * Converts time in milliseconds since Unix Epoch 
+     * Appends the UTC time string, yyyy-MM-dd HH:mm:ss.SSS, to a StringBuilder.
+     *
+     * @return The StringBuilder.
+     */
+    public static StringBuilder appendUtcTimeString(long millis, StringBuilder b) {
+        Minute m = minute(millis);
+        if (m == null) {
+            return b.append(format("yyyy-MM-dd HH:mm:ss.SSS", millis));
+        }
+
+        int ms = (int) Math.floorMod(millis, MILLIS_PER_MINUTE);
+        b.append(m.chars);
+        b.append(':');
+        b.append((char) ('0' + ms / 10000));
+        b.append((char) ('0' + ms / 1000 % 10));
+        b.append('.');
+        b.append((char) ('0' + ms / 100 % 10));
+        b.append((char) ('0' + ms / 10 % 10));
+        b.append((char) ('0' + ms % 10));
+        return b;
+    }
+
+    /**
+     * Writes the UTC time string, yyyy-MM-dd HH:mm:ss.SSS, as ASCII bytes (23 bytes)
+     * to a byte array.
+     *
+     * @return The offset after the written bytes, offset + 23.
+     * @throws IllegalArgumentException If the year is not in the range 1583-9999.
+     */
+    public static int toUtcTimeBytes(long millis, byte[] dest, int offset) {
+        Minute m = minute(millis);
+        if (m == null) {
+            throw new IllegalArgumentException("year out of range, millis: " + millis);
+        }
+
+        int ms = (int) Math.floorMod(millis, MILLIS_PER_MINUTE);
+        System.arraycopy(m.bytes, 0, dest, offset, 16);
+        int o = offset + 16;
+        dest[o++] = ':';
+        dest[o++] = (byte) ('0' + ms / 10000);
+        dest[o++] = (byte) ('0' + ms / 1000 % 10);
+        dest[o++] = '.';
+        dest[o++] = (byte) ('0' + ms / 100 % 10);
+        dest[o++] = (byte) ('0' + ms / 10 % 10);
+        dest[o++] = (byte) ('0' + ms % 10);
+        return o;
+    }
+
+    /**
+     * Converts time in milliseconds since Unix Epoch
      * to a time string in UTF, minute resolution used.
      */
     public static String toUtcTimeStringMinutes(long millis) {
-        return FORMAT2.format(new Date(millis));
+        Minute m = minute(millis);
+        if (m == null) {
+            return format("yyyy-MM-dd HH:mm", millis);
+        }
+        return new String(m.chars);
+    }
+
+    /**
+     * Appends the UTC time string with minute resolution, yyyy-MM-dd HH:mm, to a StringBuilder.
+     *
+     * @return The StringBuilder.
+     */
+    public static StringBuilder appendUtcTimeStringMinutes(long millis, StringBuilder b) {
+        Minute m = minute(millis);
+        if (m == null) {
+            return b.append(format("yyyy-MM-dd HH:mm", millis));
+        }
+        return b.append(m.chars);
+    }
+
+    /**
+     * Writes the UTC time string with minute resolution, yyyy-MM-dd HH:mm, as ASCII
+     * bytes (16 bytes) to a byte array.
+     *
+     * @return The offset after the written bytes, offset + 16.
+     * @throws IllegalArgumentException If the year is not in the range 1583-9999.
+     */
+    public static int toUtcTimeBytesMinutes(long millis, byte[] dest, int offset) {
+        Minute m = minute(millis);
+        if (m == null) {
+            throw new IllegalArgumentException("year out of range, millis: " + millis);
+        }
+        System.arraycopy(m.bytes, 0, dest, offset, 16);
+        return offset + 16;
+    }
+
+    /**
+     * Returns the Minute of a time, or null if the year is not in the range 1583-9999
+     * (then SimpleDateFormat is used).
+     */
+    private static Minute minute(long millis) {
+        long minute = Math.floorDiv(millis, MILLIS_PER_MINUTE);
+
+        Minute m = lastMinute;
+        if (m != null && m.minute == minute) {
+            return m;
+        }
+
+        long day = Math.floorDiv(millis, MILLIS_PER_DAY);
+        if (day < GREGORIAN_CUTOVER_DAY + 366 || day >= YEAR_10000_DAY) {
+            return null;
+        }
+
+        long ymd = civilFromDays(day);
+        int year = (int) (ymd / 10000);
+        int minuteOfDay = (int) Math.floorMod(minute, 24 * 60L);
+
+        char[] chars = new char[16];
+        chars[0] = (char) ('0' + year / 1000);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        write2(chars, 2, year % 100);
+        chars[4] = '-';
+        write2(chars, 5, (int) (ymd / 100 % 100));
+        chars[7] = '-';
+        write2(chars, 8, (int) (ymd % 100));
+        chars[10] = ' ';
+        write2(chars, 11, minuteOfDay / 60);
+        chars[13] = ':';
+        write2(chars, 14, minuteOfDay % 60);
+
+        m = new Minute(minute, chars);
+        lastMinute = m;
+        return m;
+    }
+
+    /**
+     * Returns the proleptic Gregorian date of a day as a number, YYYYMMDD.
+     * Civil-from-days algorithm by Howard Hinnant,
+     * http://howardhinnant.github.io/date_algorithms.html.
+     *
+     * @param day  Days since epoch (1970-01-01).
+     */
+    private static long civilFromDays(long day) {
+        long z = day + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long year = yoe + era * 400;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long date = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        if (month <= 2) {
+            year++;
+        }
+        return year * 10000 + month * 100 + date;
+    }
+
+    private static void write2(char[] dest, int offset, int value) {
+        dest[offset] = (char) ('0' + value / 10);
+        dest[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Formats with a new SimpleDateFormat, used for dates outside the range of the cache.
+     */
+    private static String format(String pattern, long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
     }
 }
@@ -1,7 +1,12 @@
 package cut;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An instance of this class is used as something to wait for.
@@ -10,14 +15,79 @@ import java.util.concurrent.TimeUnit;
  * The waiting threads will then continue executing.
  * 
  * A ToWaitFor object must only be used once.
+ * 
+ * <p>No monitors are used. Parked waiters and callbacks are kept in a lock-free stack
+ * that reportHappened() takes; it unparks the waiters and runs the callbacks. How waiters
+ * wait, spinning or parking, is given by a WaitStrategy; the default is
+ * WaitStrategy.BLOCKING. Since only LockSupport.park() is used, a waiting virtual thread
+ * does not pin its carrier thread. A waiter that times out or is interrupted unlinks its
+ * node, so polling a long-lived instance with short timeouts does not leak memory.</p>
+ * 
+ * <p>Instead of waiting, a callback can be registered with onHappened(), or the event
+ * can be turned into a CompletableFuture with toFuture().</p>
  *
  * @author Frans Lundberg
  */
 public class ToWaitFor {
-    private final CountDownLatch latch;
-    
+    private static final int HAPPENED = WaitStrategy.DONE;
+    private static final int TIMEOUT = WaitStrategy.TIMEOUT;
+    private static final int INTERRUPTED = WaitStrategy.INTERRUPTED;
+
+    /** Head of the stack when the event has happened. */
+    private static final Node DONE = new Node(null);
+
+    /** Waiters, or DONE. */
+    private final AtomicReference<Node> head = new AtomicReference<Node>();
+    private final WaitStrategy strategy;
+
+    /** Polled by WaitStrategy.spin(). */
+    private final WaitStrategy.Condition happened = new WaitStrategy.Condition() {
+        public boolean isTrue(int arg) {
+            return head.get() == DONE;
+        }
+    };
+
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    private static final AtomicReferenceFieldUpdater<Node, Runnable> CALLBACK =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Runnable.class, "callback");
+
+    /**
+     * A parked waiter or a callback. thread is set to null when the waiter has given up;
+     * callback is set to null when the callback is claimed, to be run or removed.
+     */
+    private static final class Node {
+        volatile Thread thread;
+        volatile Runnable callback;
+        final Executor executor;
+        volatile Node next;
+
+        Node(Thread thread) {
+            this.thread = thread;
+            this.callback = null;
+            this.executor = null;
+        }
+
+        Node(Runnable callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        boolean isCancelled() {
+            return thread == null && callback == null;
+        }
+    }
+
     public ToWaitFor() {
-        latch = new CountDownLatch(1);
+        this(WaitStrategy.BLOCKING);
+    }
+
+    public ToWaitFor(WaitStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy == null not allowed");
+        }
+        this.strategy = strategy;
     }
 
     /**
@@ -26,7 +96,151 @@ public class ToWaitFor {
      * more than once, subsequent calls have no effect.
      */
     public void reportHappened() {
-        latch.countDown();
+        Node node = head.getAndSet(DONE);
+        if (node == DONE) {
+            return;
+        }
+
+        // Waiters are unparked first, so a slow or failing callback cannot hold them up.
+        // The stack is not reversed in place; waiters that give up may still be
+        // unlinking nodes. Callbacks are collected to run in registration order.
+        List<Node> callbacks = null;
+        for (; node != null; node = node.next) {
+            if (node.callback == null) {
+                Thread t = node.thread;
+                if (t != null) {
+                    LockSupport.unpark(t);
+                }
+            } else {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<Node>();
+                }
+                callbacks.add(node);
+            }
+        }
+
+        if (callbacks == null) {
+            return;
+        }
+
+        Throwable exception = null;
+
+        for (int i = callbacks.size() - 1; i >= 0; i--) {
+            node = callbacks.get(i);
+            Runnable callback = node.callback;
+            if (callback == null || !CALLBACK.compareAndSet(node, callback, null)) {
+                continue;    // removed
+            }
+            try {
+                run(callback, node.executor);
+            } catch (Throwable e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+
+        // Runnable.run() and Executor.execute() throw unchecked exceptions only.
+        if (exception instanceof Error) {
+            throw (Error) exception;
+        }
+        if (exception != null) {
+            throw (RuntimeException) exception;
+        }
+    }
+
+    /**
+     * Registers a callback that is run by the thread that calls reportHappened(),
+     * or directly by this thread if the event has already happened.
+     */
+    public void onHappened(Runnable callback) {
+        onHappened(callback, null);
+    }
+
+    /**
+     * Registers a callback that is run by the executor when the event happens. If the event
+     * has already happened, the callback is run directly by this thread. If the executor is
+     * null, the callback is run by the thread that calls reportHappened().
+     * 
+     * Waiting threads are woken up before any callback is run. If a callback (or executor)
+     * throws an exception or an error, the other callbacks are still run, and
+     * reportHappened() throws the first one.
+     */
+    public void onHappened(Runnable callback, Executor executor) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback == null not allowed");
+        }
+
+        Node node = new Node(callback, executor);
+        while (true) {
+            Node h = head.get();
+            if (h == DONE) {
+                callback.run();
+                return;
+            }
+            node.next = h;
+            if (head.compareAndSet(h, node)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes a callback registered with onHappened(). Useful when the callback is no
+     * longer needed, for example after a timeout, so it does not stay registered
+     * with an event that may not happen for a long time.
+     *
+     * @return true if the callback was removed and will not be run, false if it was
+     *      not registered or has been or is being run.
+     */
+    public boolean removeOnHappened(Runnable callback) {
+        Node h = head.get();
+        for (Node n = h == DONE ? null : h; n != null; n = n.next) {
+            if (n.callback == callback && callback != null
+                    && CALLBACK.compareAndSet(n, callback, null)) {
+                unlinkCancelled();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new CompletableFuture that is completed (with null) when the event happens.
+     * Dependent actions of the future are run by the thread that reports the event unless
+     * async methods are used.
+     */
+    public CompletableFuture<Void> toFuture() {
+        final CompletableFuture<Void> future = new CompletableFuture<Void>();
+        onHappened(new Runnable() {
+            public void run() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Waits for the event to happen. Unlike waitForIt(), an interrupt is reported with
+     * an InterruptedException.
+     */
+    public void await() throws InterruptedException {
+        await(Long.MAX_VALUE);
+    }
+
+    /**
+     * Waits for the event to happen, at most the given time in nanoseconds.
+     * Long.MAX_VALUE means no timeout.
+     * 
+     * @return true if the event has happened, false if the time is out.
+     * @throws InterruptedException If this thread was interrupted.
+     */
+    public boolean await(long nanos) throws InterruptedException {
+        int result = doWait(nanos);
+        if (result == INTERRUPTED) {
+            throw new InterruptedException();
+        }
+        return result == HAPPENED;
     }
 
     /**
@@ -41,11 +255,15 @@ public class ToWaitFor {
      *      because of a timeout or because this thread was interrupted
      */
     public boolean waitForIt(long millis) {
-        try {
-            return latch.await(millis, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            return false;
-        }
+        return waitForItNanos(millis >= Long.MAX_VALUE / 1000000 ? Long.MAX_VALUE : millis * 1000000);
+    }
+
+    /**
+     * Like waitForIt(long), but the maximum time to wait is given in nanoseconds.
+     * Long.MAX_VALUE means no timeout.
+     */
+    public boolean waitForItNanos(long nanos) {
+        return doWait(nanos) == HAPPENED;
     }
 
     /**
@@ -54,6 +272,127 @@ public class ToWaitFor {
      * @return true if happened.
      */
     public boolean hasHappened() {
-        return latch.getCount() == 0;
+        return head.get() == DONE;
+    }
+
+    /**
+     * Waits, returns HAPPENED, TIMEOUT or INTERRUPTED. The interrupt status is cleared.
+     */
+    private int doWait(long nanos) {
+        if (Thread.interrupted()) {
+            return INTERRUPTED;
+        }
+        if (head.get() == DONE) {
+            return HAPPENED;
+        }
+        if (nanos <= 0) {
+            return TIMEOUT;
+        }
+
+        boolean timed = nanos < Long.MAX_VALUE / 2;
+        long deadline = timed ? System.nanoTime() + nanos : 0;
+
+        int result = strategy.spin(happened, 0, timed, deadline);
+        if (result != WaitStrategy.PARK) {
+            return result;
+        }
+
+        return park(timed, deadline);
+    }
+
+    /**
+     * Pushes a node for this thread to the stack and parks until the event has
+     * happened, the time is out, or the thread is interrupted.
+     */
+    private int park(boolean timed, long deadline) {
+        Node node = new Node(Thread.currentThread());
+        while (true) {
+            Node h = head.get();
+            if (h == DONE) {
+                return HAPPENED;
+            }
+            node.next = h;
+            if (head.compareAndSet(h, node)) {
+                break;
+            }
+        }
+
+        while (head.get() != DONE) {
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    node.thread = null;
+                    unlinkCancelled();
+                    return TIMEOUT;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+
+            if (Thread.interrupted()) {
+                node.thread = null;
+                unlinkCancelled();
+                return INTERRUPTED;
+            }
+        }
+
+        return HAPPENED;
+    }
+
+    /**
+     * Unlinks all given-up and removed nodes from the stack. Nodes are
+     * only removed by a CAS of the next field of their predecessor from the node to its
+     * successor, so live nodes are never lost. A given-up node may survive a race with
+     * another unlink; it is skipped by reportHappened() and unlinked by the next call.
+     */
+    private void unlinkCancelled() {
+        retry:
+        while (true) {
+            Node h = head.get();
+            if (h == DONE || h == null) {
+                return;
+            }
+            if (h.isCancelled()) {
+                head.compareAndSet(h, h.next);
+                continue;
+            }
+
+            Node pred = h;
+            Node n = h.next;
+            while (n != null) {
+                if (n.isCancelled()) {
+                    Node succ = n.next;
+                    if (!NEXT.compareAndSet(pred, n, succ)) {
+                        continue retry;
+                    }
+                    n = succ;
+                } else {
+                    pred = n;
+                    n = n.next;
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the stack. For testing.
+     */
+    int nodeCount() {
+        int count = 0;
+        Node n = head.get();
+        for (n = n == DONE ? null : n; n != null; n = n.next) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void run(Runnable callback, Executor executor) {
+        if (executor == null) {
+            callback.run();
+        } else {
+            executor.execute(callback);
+        }
     }
 }
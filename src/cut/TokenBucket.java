@@ -0,0 +1,149 @@
+package cut;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket for rate limiting. Tokens are added at a given rate up to
+ * the capacity of the bucket; an event is admitted if there are tokens to take.
+ *
+ * <p>Implemented as the generic cell rate algorithm (GCRA): the whole state is one
+ * long, the "theoretical arrival time", updated with CAS. Nothing is allocated per
+ * call. Like FrequencySensor, the methods take a nanosecond time argument for
+ * deterministic testing; use System.nanoTime() otherwise.</p>
+ *
+ * <p>Instances are thread-safe.</p>
+ */
+public class TokenBucket {
+    /** The time when the bucket is full, in nanoseconds. */
+    private final AtomicLong fullTime;
+    private volatile Params params;
+
+    /**
+     * Immutable rate parameters, so setRate() changes them atomically.
+     */
+    private static final class Params {
+        final double rate;
+        final long capacity;
+        final double nanosPerToken;
+        final long burstNanos;
+
+        Params(double rate, long capacity) {
+            this.rate = rate;
+            this.capacity = capacity;
+            this.nanosPerToken = 1e9 / rate;
+            this.burstNanos = (long) (capacity * nanosPerToken);
+        }
+    }
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param tokensPerSecond  The rate tokens are added with, &gt; 0.
+     * @param capacity  Max number of tokens in the bucket, the max burst, &gt;= 1.
+     * @param startTimeInNanos  Current time in nano seconds.
+     */
+    public TokenBucket(double tokensPerSecond, long capacity, long startTimeInNanos) {
+        checkRate(tokensPerSecond);
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1 not allowed");
+        }
+        this.params = new Params(tokensPerSecond, capacity);
+        this.fullTime = new AtomicLong(startTimeInNanos);
+    }
+
+    /**
+     * Takes one token if available.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @return True if a token was taken, the event is admitted.
+     */
+    public boolean tryAcquire(long nanoTime) {
+        return reserve(nanoTime, 1, 0) >= 0;
+    }
+
+    /**
+     * Takes the given number of tokens if available.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param tokens  Number of tokens, &gt;= 0.
+     * @return True if the tokens were taken.
+     */
+    public boolean tryAcquire(long nanoTime, long tokens) {
+        return reserve(nanoTime, tokens, 0) >= 0;
+    }
+
+    /**
+     * Reserves tokens, possibly ahead of time. The caller should wait for the returned time
+     * before going ahead. Used to delay events instead of rejecting them.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     * @param tokens  Number of tokens, &gt;= 0.
+     * @param maxWaitNanos  Max time to wait, &gt;= 0.
+     * @return The time to wait in nanoseconds, or -1 if the wait would be longer than
+     *      maxWaitNanos; then nothing is reserved.
+     */
+    public long reserve(long nanoTime, long tokens, long maxWaitNanos) {
+        if (tokens < 0) {
+            throw new IllegalArgumentException("tokens < 0 not allowed");
+        }
+
+        Params p = params;
+        long cost = (long) (tokens * p.nanosPerToken);
+
+        while (true) {
+            long prev = fullTime.get();
+            long start = prev - nanoTime > 0 ? prev : nanoTime;
+            long next = start + cost;
+            long wait = next - nanoTime - p.burstNanos;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (fullTime.compareAndSet(prev, next)) {
+                return wait > 0 ? wait : 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tokens in the bucket.
+     *
+     * @param nanoTime  Current time in nano seconds.
+     */
+    public long getAvailableTokens(long nanoTime) {
+        Params p = params;
+        long debt = fullTime.get() - nanoTime;
+        if (debt <= 0) {
+            return p.capacity;
+        }
+        long available = (long) ((p.burstNanos - debt) / p.nanosPerToken);
+        return available > 0 ? available : 0;
+    }
+
+    /**
+     * Returns the rate in tokens per second.
+     */
+    public double getRate() {
+        return params.rate;
+    }
+
+    /**
+     * Returns the capacity.
+     */
+    public long getCapacity() {
+        return params.capacity;
+    }
+
+    /**
+     * Changes the rate. Tokens already in the bucket are kept, approximately.
+     */
+    public void setRate(double tokensPerSecond) {
+        checkRate(tokensPerSecond);
+        params = new Params(tokensPerSecond, params.capacity);
+    }
+
+    private static void checkRate(double rate) {
+        if (!(rate > 0.0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("bad rate: " + rate);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cut;
+
+/**
+ * How a thread waits for an event, see ToWaitFor and EventToWaitFor.
+ * Spinning gives the lowest latency when the event happens within microseconds
+ * but uses a processor while waiting.
+ */
+public enum WaitStrategy {
+    /** Spins until the event happens or the time is out. Uses a whole processor. */
+    BUSY_SPIN,
+
+    /** Spins a short while, then yields the processor between checks. */
+    SPIN_YIELD,
+
+    /** Spins a short while, yields a few times, then parks the thread. */
+    SPIN_PARK,
+
+    /** Parks the thread directly, like CountDownLatch.await() does. */
+    BLOCKING;
+
+    /** Number of spins before yielding or parking. */
+    static final int SPINS = 1000;
+
+    /** Number of yields before parking, for SPIN_PARK. */
+    static final int YIELDS = 10;
+
+    /** Results of spin(). */
+    static final int DONE = 1;
+    static final int TIMEOUT = 0;
+    static final int INTERRUPTED = -1;
+    static final int PARK = 2;
+
+    /**
+     * A condition that spin() waits for. arg is the argument given to spin().
+     */
+    interface Condition {
+        boolean isTrue(int arg);
+    }
+
+    /**
+     * Spins and yields, as given by this strategy, until the condition is true, the time
+     * is out, or the thread is interrupted (the interrupt status is cleared). The interrupt
+     * status and the time are checked every 64 spins. Returns DONE, TIMEOUT, INTERRUPTED,
+     * or PARK when the caller should park; directly for BLOCKING.
+     *
+     * @param timed  true if deadline is used.
+     * @param deadline  A System.nanoTime() value.
+     */
+    int spin(Condition condition, int arg, boolean timed, long deadline) {
+        if (this == BLOCKING) {
+            return PARK;
+        }
+
+        int spins = 0;
+        while (true) {
+            if (condition.isTrue(arg)) {
+                return DONE;
+            }
+            if ((++spins & 63) == 0) {
+                if (Thread.interrupted()) {
+                    return INTERRUPTED;
+                }
+                if (timed && System.nanoTime() - deadline >= 0) {
+                    return TIMEOUT;
+                }
+            }
+
+            if (this == BUSY_SPIN || spins < SPINS) {
+                continue;
+            }
+            if (this == SPIN_YIELD || spins < SPINS + YIELDS) {
+                Thread.yield();
+                continue;
+            }
+            return PARK;
+        }
+    }
+}
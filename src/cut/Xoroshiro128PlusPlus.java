@@ -0,0 +1,152 @@
+package cut;
+
+/**
+ * The xoroshiro128++ pseudo-random number generator by David Blackman and Sebastiano
+ * Vigna, see https://prng.di.unimi.it/. Fast, 128 bits of state, good statistical
+ * quality; for simulation and sampling, not for security (use ChaCha20Random).
+ *
+ * <p>Instances are not thread-safe; use current() to get a generator for the current
+ * thread, or split() to get a generator for another task, for example a fork-join task.</p>
+ */
+public class Xoroshiro128PlusPlus {
+    private static final ThreadLocal<Xoroshiro128PlusPlus> CURRENT =
+            new ThreadLocal<Xoroshiro128PlusPlus>() {
+        protected Xoroshiro128PlusPlus initialValue() {
+            return new Xoroshiro128PlusPlus();
+        }
+    };
+
+    private long s0;
+    private long s1;
+
+    /**
+     * Creates a generator seeded from SeedGenerator.getDefault().
+     */
+    public Xoroshiro128PlusPlus() {
+        byte[] seed = SeedGenerator.getDefault().getSeed();
+        init(Bytes.bytesToLongLE(seed, 0), Bytes.bytesToLongLE(seed, 8));
+    }
+
+    /**
+     * Creates a generator with a state from a SplitMix64 generator with the given seed.
+     */
+    public Xoroshiro128PlusPlus(long seed) {
+        SplitMix64 s = new SplitMix64(seed);
+        init(s.nextLong(), s.nextLong());
+    }
+
+    /**
+     * Creates a generator with the given state. The state must not be all zeros;
+     * if it is, it is replaced.
+     */
+    public Xoroshiro128PlusPlus(long s0, long s1) {
+        init(s0, s1);
+    }
+
+    private void init(long a, long b) {
+        if (a == 0 && b == 0) {
+            a = SplitMix64.mix(0x9e3779b97f4a7c15L);
+        }
+        this.s0 = a;
+        this.s1 = b;
+    }
+
+    /**
+     * Returns the generator of the current thread.
+     */
+    public static Xoroshiro128PlusPlus current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns a new generator, independent of this one in practice. Its state is
+     * two outputs of this generator mixed by SplitMix64.
+     */
+    public Xoroshiro128PlusPlus split() {
+        return new Xoroshiro128PlusPlus(SplitMix64.mix(nextLong()), SplitMix64.mix(nextLong()));
+    }
+
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a value in [0, bound), evenly distributed.
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound <= 0 not allowed");
+        }
+
+        int bits;
+        int value;
+        do {
+            bits = nextInt() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    /**
+     * Returns a value in [0.0, 1.0).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Fills a range of a long array with random values.
+     */
+    public void nextLongs(long[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        long a = s0;
+        long b = s1;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            dest[i] = Long.rotateLeft(a + b, 17) + a;
+            b ^= a;
+            a = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+            b = Long.rotateLeft(b, 28);
+        }
+        s0 = a;
+        s1 = b;
+    }
+
+    /**
+     * Fills a range of a byte array with random bytes.
+     */
+    public void nextBytes(byte[] dest, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > dest.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            Bytes.longToBytesLE(nextLong(), dest, i);
+        }
+        if (i < end) {
+            long value = nextLong();
+            for (; i < end; i++) {
+                dest[i] = (byte) value;
+                value >>>= 8;
+            }
+        }
+    }
+
+    public void nextBytes(byte[] dest) {
+        nextBytes(dest, 0, dest.length);
+    }
+}
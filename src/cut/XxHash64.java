@@ -0,0 +1,269 @@
+package cut;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * Pure-Java implementation of the xxHash64 hash function, see
+ * https://github.com/Cyan4973/xxHash. Fast, non-cryptographic; suitable
+ * for checksums of data blocks. 8 bytes are read per step.
+ *
+ * The static hash() methods hash a whole byte range at once. An instance is
+ * a streaming hash; it implements java.util.zip.Checksum so it can be used with
+ * java.util.zip.CheckedInputStream and CheckedOutputStream, for example with Io.copy().
+ * The result of getValue() equals hash() of all data given to update().
+ *
+ * Instances are not thread-safe.
+ */
+public class XxHash64 implements Checksum {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final long seed;
+    private final byte[] buffer = new byte[32];
+    private int bufferSize;
+    private long totalLength;
+    private long v1, v2, v3, v4;
+
+    /**
+     * Creates a streaming hash with seed 0.
+     */
+    public XxHash64() {
+        this(0);
+    }
+
+    public XxHash64(long seed) {
+        this.seed = seed;
+        reset();
+    }
+
+    /**
+     * Returns the xxHash64 hash of the given bytes.
+     */
+    public static long hash(byte[] b, int offset, int length, long seed) {
+        if (offset < 0 || length < 0 || offset > b.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int off = offset;
+        int end = offset + length;
+        long h;
+
+        if (length >= 32) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            int limit = end - 32;
+
+            do {
+                v1 = round(v1, Bytes.bytesToLongLE(b, off));
+                v2 = round(v2, Bytes.bytesToLongLE(b, off + 8));
+                v3 = round(v3, Bytes.bytesToLongLE(b, off + 16));
+                v4 = round(v4, Bytes.bytesToLongLE(b, off + 24));
+                off += 32;
+            } while (off <= limit);
+
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+
+        h += length;
+        return finish(h, b, off, end);
+    }
+
+    /**
+     * Returns the xxHash64 hash of the given bytes, seed 0 is used.
+     */
+    public static long hash(byte[] b, int offset, int length) {
+        return hash(b, offset, length, 0);
+    }
+
+    /**
+     * Returns the xxHash64 hash of the remaining bytes of the buffer.
+     * The position of the buffer is not changed.
+     */
+    public static long hash(ByteBuffer buffer, long seed) {
+        if (buffer.hasArray()) {
+            return hash(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining(), seed);
+        }
+
+        XxHash64 x = new XxHash64(seed);
+        x.update(buffer.duplicate());
+        return x.getValue();
+    }
+
+    public void update(int b) {
+        buffer[bufferSize++] = (byte) b;
+        totalLength++;
+        if (bufferSize == 32) {
+            consumeStripe(buffer, 0);
+            bufferSize = 0;
+        }
+    }
+
+    public void update(byte[] b, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > b.length - length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int off = offset;
+        int end = offset + length;
+        totalLength += length;
+
+        if (bufferSize > 0) {
+            int n = Math.min(32 - bufferSize, length);
+            System.arraycopy(b, off, buffer, bufferSize, n);
+            bufferSize += n;
+            off += n;
+            if (bufferSize < 32) {
+                return;
+            }
+            consumeStripe(buffer, 0);
+            bufferSize = 0;
+        }
+
+        for (; off + 32 <= end; off += 32) {
+            consumeStripe(b, off);
+        }
+
+        bufferSize = end - off;
+        System.arraycopy(b, off, buffer, 0, bufferSize);
+    }
+
+    public void update(byte[] b) {
+        update(b, 0, b.length);
+    }
+
+    /**
+     * Updates the hash with the remaining bytes of the buffer.
+     * The position of the buffer is set to its limit.
+     * Direct buffers are read in place with absolute gets; no bytes are copied.
+     */
+    public void update(ByteBuffer b) {
+        if (b.hasArray()) {
+            int pos = b.position();
+            int length = b.remaining();
+            update(b.array(), b.arrayOffset() + pos, length);
+            b.position(pos + length);
+            return;
+        }
+
+        int off = b.position();
+        int end = b.limit();
+        totalLength += end - off;
+
+        if (bufferSize > 0) {
+            while (bufferSize < 32 && off < end) {
+                buffer[bufferSize++] = b.get(off++);
+            }
+            if (bufferSize < 32) {
+                b.position(end);
+                return;
+            }
+            consumeStripe(buffer, 0);
+            bufferSize = 0;
+        }
+
+        boolean littleEndian = b.order() == ByteOrder.LITTLE_ENDIAN;
+        for (; off + 32 <= end; off += 32) {
+            v1 = round(v1, getLongLE(b, off, littleEndian));
+            v2 = round(v2, getLongLE(b, off + 8, littleEndian));
+            v3 = round(v3, getLongLE(b, off + 16, littleEndian));
+            v4 = round(v4, getLongLE(b, off + 24, littleEndian));
+        }
+
+        while (off < end) {
+            buffer[bufferSize++] = b.get(off++);
+        }
+        b.position(end);
+    }
+
+    public long getValue() {
+        long h;
+        if (totalLength >= 32) {
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+
+        h += totalLength;
+        return finish(h, buffer, 0, bufferSize);
+    }
+
+    public void reset() {
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        bufferSize = 0;
+        totalLength = 0;
+    }
+
+    private void consumeStripe(byte[] b, int off) {
+        v1 = round(v1, Bytes.bytesToLongLE(b, off));
+        v2 = round(v2, Bytes.bytesToLongLE(b, off + 8));
+        v3 = round(v3, Bytes.bytesToLongLE(b, off + 16));
+        v4 = round(v4, Bytes.bytesToLongLE(b, off + 24));
+    }
+
+    private static long getLongLE(ByteBuffer b, int index, boolean littleEndian) {
+        long v = b.getLong(index);
+        return littleEndian ? v : Long.reverseBytes(v);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long merge(long h, long v) {
+        h ^= round(0, v);
+        return h * P1 + P4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = merge(h, v1);
+        h = merge(h, v2);
+        h = merge(h, v3);
+        h = merge(h, v4);
+        return h;
+    }
+
+    /**
+     * Processes the last (less than 32) bytes and does the final avalanche.
+     */
+    private static long finish(long h, byte[] b, int off, int end) {
+        for (; off + 8 <= end; off += 8) {
+            h ^= round(0, Bytes.bytesToLongLE(b, off));
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+
+        if (off + 4 <= end) {
+            h ^= (Bytes.bytesToIntLE(b, off) & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            off += 4;
+        }
+
+        for (; off < end; off++) {
+            h ^= (b[off] & 0xffL) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}